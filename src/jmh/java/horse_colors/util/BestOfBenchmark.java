@@ -0,0 +1,97 @@
+package sekelsta.horse_colors.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Picking an AI target the old way, by sorting every candidate with a
+// comparator that works out distances as it goes, against a single pass
+// through a reused BestOf. The candidates stand in for nearby equines: a
+// position, a max health, and whether they're the same kind as the searcher.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BestOfBenchmark {
+    public static class Candidate {
+        final double x, y, z;
+        final float maxHealth;
+        final boolean sameClass;
+
+        Candidate(double x, double y, double z, float maxHealth, boolean sameClass) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.maxHealth = maxHealth;
+            this.sameClass = sameClass;
+        }
+
+        double distanceToSqr(Candidate other) {
+            double dx = x - other.x;
+            double dy = y - other.y;
+            double dz = z - other.z;
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    @Param({"10", "100", "1000"})
+    public int candidates;
+
+    private final List<Candidate> list = new ArrayList<>();
+    private final BestOf<Candidate> best = new BestOf<>();
+    private Candidate center;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(candidates);
+        center = new Candidate(0, 64, 0, 20, true);
+        list.clear();
+        for (int i = 0; i < candidates; ++i) {
+            list.add(new Candidate(random.nextDouble() * 40 - 20, 60 + random.nextDouble() * 8,
+                random.nextDouble() * 40 - 20, 15 + random.nextInt(16), random.nextBoolean()));
+        }
+    }
+
+    // Same ordering as StayWithHerd used before BestOf
+    private int nearestIdeallyMatchingClass(Candidate a, Candidate b) {
+        if (a.sameClass != b.sameClass) {
+            return a.sameClass ? -1 : 1;
+        }
+        return Double.compare(a.distanceToSqr(center), b.distanceToSqr(center));
+    }
+
+    @Benchmark
+    public Candidate nearestBySorting() {
+        return list.stream().sorted(this::nearestIdeallyMatchingClass).findFirst().orElse(null);
+    }
+
+    @Benchmark
+    public Candidate nearestByBestOf() {
+        for (Candidate c : list) {
+            best.offer(c, c.sameClass ? 1 : 0, c.distanceToSqr(center));
+        }
+        return best.take();
+    }
+
+    @Benchmark
+    public Candidate strongestBySorting() {
+        return list.stream().sorted(Comparator.comparingDouble((Candidate c) -> -c.maxHealth)).findFirst().orElse(null);
+    }
+
+    @Benchmark
+    public Candidate strongestByBestOf() {
+        for (Candidate c : list) {
+            best.offer(c, -c.maxHealth);
+        }
+        return best.take();
+    }
+}
@@ -12,7 +12,13 @@ import org.apache.logging.log4j.Logger;
 
 import sekelsta.horse_colors.breed.BreedManager;
 import sekelsta.horse_colors.client.HorseGui;
+import sekelsta.horse_colors.client.renderer.CompositeTextureCache;
+import sekelsta.horse_colors.client.renderer.GpuCompositor;
+import sekelsta.horse_colors.client.renderer.TexturePrefetcher;
 import sekelsta.horse_colors.entity.ModEntities;
+import sekelsta.horse_colors.entity.ai.AiScheduler;
+import sekelsta.horse_colors.entity.ai.AutobreedMatchmaker;
+import sekelsta.horse_colors.entity.ai.HerdRegistry;
 import sekelsta.horse_colors.item.ModItems;
 import sekelsta.horse_colors.network.*;
 import sekelsta.horse_colors.world.HorseReplacer;
@@ -35,6 +41,11 @@ public class HorseColors
         modEventBus.addListener(this::clientSetup);
         NeoForge.EVENT_BUS.addListener(ContainerEventHandler::editContainer);
         NeoForge.EVENT_BUS.register(HorseReplacer.class);
+        NeoForge.EVENT_BUS.addListener(AiScheduler::onLevelTick);
+        NeoForge.EVENT_BUS.addListener(AutobreedMatchmaker::onLevelTick);
+        NeoForge.EVENT_BUS.addListener(HerdRegistry::onLevelUnload);
+        NeoForge.EVENT_BUS.addListener(AiScheduler::onLevelUnload);
+        NeoForge.EVENT_BUS.addListener(AutobreedMatchmaker::onLevelUnload);
 
         ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, HorseConfig.spec);
         NeoForge.EVENT_BUS.addListener(BreedManager::addReloadListener);
@@ -48,6 +59,11 @@ public class HorseColors
     private void clientSetup(final FMLClientSetupEvent event)
     {
         NeoForge.EVENT_BUS.addListener(HorseGui::replaceGui);
+        NeoForge.EVENT_BUS.addListener(CompositeTextureCache::onRenderTick);
+        NeoForge.EVENT_BUS.addListener(GpuCompositor::onRenderTick);
+        NeoForge.EVENT_BUS.addListener(CompositeTextureCache::onLogout);
+        NeoForge.EVENT_BUS.addListener(CompositeTextureCache::addDebugText);
+        NeoForge.EVENT_BUS.addListener(TexturePrefetcher::onClientTick);
     }
 
     public void commonSetup(final FMLCommonSetupEvent event) {
@@ -23,6 +23,7 @@ public class HorseConfig
     public static final Breeding BREEDING = new Breeding(BUILDER);
     public static final Spawn SPAWN = new Spawn(BUILDER);
     public static final Genetics GENETICS = new Genetics(BUILDER);
+    public static final Client CLIENT = new Client(BUILDER);
 
     public static class Common {
         public static BooleanValue horseDebugInfo;
@@ -35,6 +36,8 @@ public class HorseConfig
         public static BooleanValue useGeneticAnimalsIcons;
         public static BooleanValue rideSmallEquines;
         public static ConfigValue<ArrayList<String>> equineFoods;
+        public static IntValue aiSearchesPerTick;
+        public static IntValue aiMicrosecondsPerTick;
 
         Common(final ModConfigSpec.Builder builder) {
             ArrayList<String> DEFAULT_EQUINE_FOODS = new ArrayList<>(Arrays.asList("hay_block",  "wheat", "sugar", 
@@ -93,6 +96,17 @@ public class HorseConfig
                     .comment("Foods that can be eaten by horses and donkeys to restore health, increase tameness, and speed foal growth.")
                     .define("equineFoods", DEFAULT_EQUINE_FOODS);
 
+            aiSearchesPerTick = builder
+                    .comment("The most herd and breeding searches that equines in one dimension will do each tick.",
+                             "Searches past this wait for a later tick, which spreads the work out when many horses",
+                             "want to search at once.")
+                    .defineInRange("aiSearchesPerTick", 16, 1, Integer.MAX_VALUE);
+
+            aiMicrosecondsPerTick = builder
+                    .comment("Stop starting new herd and breeding searches in a tick once they have taken this long,",
+                             "in microseconds. At least one search always runs each tick. 0 for no time limit.")
+                    .defineInRange("aiMicrosecondsPerTick", 1000, 0, Integer.MAX_VALUE);
+
             builder.pop();
         }
     }
@@ -281,6 +295,62 @@ public class HorseConfig
 
     }
 
+    public static class Client {
+        public static IntValue textureCacheMegabytes;
+        public static BooleanValue preloadTextures;
+        public static BooleanValue prefetchTextures;
+        public static IntValue diskCacheMegabytes;
+        public static BooleanValue textureAtlas;
+        public static IntValue lowDetailDistance;
+        public static BooleanValue gpuCompositing;
+
+        Client(final ModConfigSpec.Builder builder) {
+            builder.comment("Client-side settings for how horse textures are rendered")
+                    .push("client");
+
+            textureCacheMegabytes = builder
+                    .comment("How many megabytes of video memory the combined horse textures may use",
+                             "before the least recently seen ones are unloaded. Textures that are",
+                             "currently on screen are never unloaded.")
+                    .defineInRange("textureCacheMegabytes", 256, 1, 65536);
+
+            preloadTextures = builder
+                    .comment("If enabled, all of this mod's horse texture layers are read in when",
+                             "resources are loaded, rather than the first time a horse needs them.")
+                    .define("preloadTextures", true);
+
+            prefetchTextures = builder
+                    .comment("If enabled, textures for horses that are nearby but not yet in view are",
+                             "built in the background, closest first, so they are ready when they appear.")
+                    .define("prefetchTextures", true);
+
+            diskCacheMegabytes = builder
+                    .comment("How many megabytes of finished horse textures to keep on disk between",
+                             "sessions, so they don't need to be built again. Set to 0 to disable.")
+                    .defineInRange("diskCacheMegabytes", 128, 0, 65536);
+
+            textureAtlas = builder
+                    .comment("If enabled, horse textures are packed together into a few large textures",
+                             "so that many horses can be drawn at once. This can help with very large",
+                             "herds, but may not work with other mods that change how horses are drawn.")
+                    .define("textureAtlas", false);
+
+            lowDetailDistance = builder
+                    .comment("Horses further than this many blocks away use a lower resolution texture,",
+                             "which takes less memory and time to make. The full texture is only built",
+                             "once a horse comes closer. Set to 0 to always use full resolution.")
+                    .defineInRange("lowDetailDistance", 32, 0, 1024);
+
+            gpuCompositing = builder
+                    .comment("Experimental. If enabled, horse textures are combined by the graphics card",
+                             "instead of on background threads. Falls back to the CPU if the shader fails",
+                             "or its colors don't match what the CPU makes.")
+                    .define("gpuCompositing", false);
+
+            builder.pop();
+        }
+    }
+
     public static final ModConfigSpec spec = BUILDER.build();
 
     public static boolean isGenderEnabled() {
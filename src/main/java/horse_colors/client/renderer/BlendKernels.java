@@ -0,0 +1,249 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+
+import sekelsta.horse_colors.util.Color;
+
+// The blending modes of TextureLayer, applied a row at a time to packed
+// pixels. The float math matches what used to be done per channel through
+// NativeImage, so the results are the same.
+@OnlyIn(Dist.CLIENT)
+final class BlendKernels {
+    // Channel offsets for NativeImage.Format.RGBA
+    private static final int RED_OFFSET = 0;
+    private static final int GREEN_OFFSET = 8;
+    private static final int BLUE_OFFSET = 16;
+    private static final int ALPHA_OFFSET = 24;
+
+    // Byte value to float between 0 and 1
+    private static final float[] TO_FLOAT = new float[256];
+    static {
+        for (int i = 0; i < 256; ++i) {
+            TO_FLOAT[i] = i / 255f;
+        }
+    }
+
+    private static final int MAX_EXPONENT_TABLES = 64;
+    private static final ConcurrentHashMap<Long, float[]> exponentTables = new ConcurrentHashMap<>();
+
+    private BlendKernels() {}
+
+    private static float red(int pixel) {
+        return TO_FLOAT[(pixel >>> RED_OFFSET) & 255];
+    }
+
+    private static float green(int pixel) {
+        return TO_FLOAT[(pixel >>> GREEN_OFFSET) & 255];
+    }
+
+    private static float blue(int pixel) {
+        return TO_FLOAT[(pixel >>> BLUE_OFFSET) & 255];
+    }
+
+    private static float alpha(int pixel) {
+        return TO_FLOAT[(pixel >>> ALPHA_OFFSET) & 255];
+    }
+
+    private static int pack(float r, float g, float b, float a) {
+        return (clamp((int)(r * 255)) << RED_OFFSET)
+            | (clamp((int)(g * 255)) << GREEN_OFFSET)
+            | (clamp((int)(b * 255)) << BLUE_OFFSET)
+            | (clamp((int)(a * 255)) << ALPHA_OFFSET);
+    }
+
+    // Restrict to range [0, 255]
+    private static int clamp(int x) {
+        return Math.max(0, Math.min(x, 255));
+    }
+
+    // For each column of the base, the column of the image to sample from,
+    // scaling with nearest neighbour if they differ in size
+    private static int[] columnMap(PixelBuffer base, PixelBuffer image) {
+        int[] columns = new int[base.width];
+        for (int x = 0; x < base.width; ++x) {
+            columns[x] = x * image.width / base.width;
+        }
+        return columns;
+    }
+
+    // Start of the image row to sample for the given base row
+    private static int sourceRow(PixelBuffer base, PixelBuffer image, int y) {
+        return (y * image.height / base.height) * image.width;
+    }
+
+    static void tint(PixelBuffer image, Color color) {
+        int[] pixels = image.pixels;
+        for (int i = 0; i < pixels.length; ++i) {
+            int p = pixels[i];
+            pixels[i] = pack(red(p) * color.r, green(p) * color.g,
+                blue(p) * color.b, alpha(p) * color.a);
+        }
+    }
+
+    static void blend(PixelBuffer base, PixelBuffer image, Color color, boolean keepAlpha) {
+        int[] dst = base.pixels;
+        int[] src = image.pixels;
+        int[] columns = columnMap(base, image);
+        for (int y = 0; y < base.height; ++y) {
+            int row = y * base.width;
+            int srcRow = sourceRow(base, image, y);
+            for (int x = 0; x < base.width; ++x) {
+                int bp = dst[row + x];
+                int ip = src[srcRow + columns[x]];
+                float baseR = red(bp);
+                float baseG = green(bp);
+                float baseB = blue(bp);
+                float baseA = alpha(bp);
+
+                float imgR = red(ip) * color.r;
+                float imgG = green(ip) * color.g;
+                float imgB = blue(ip) * color.b;
+                float imgA = alpha(ip) * color.a;
+
+                float r = imgR * imgA + baseR * (1 - imgA);
+                float g = imgG * imgA + baseG * (1 - imgA);
+                float b = imgB * imgA + baseB * (1 - imgA);
+                float a = keepAlpha ? baseA : baseA + (imgA * (1 - baseA));
+
+                dst[row + x] = pack(r, g, b, a);
+            }
+        }
+    }
+
+    // Shade darkens light areas more strongly, highlight lightens dark areas
+    // more strongly
+    static void shade(PixelBuffer base, PixelBuffer image, Color color, boolean highlight) {
+        int[] dst = base.pixels;
+        int[] src = image.pixels;
+        int[] columns = columnMap(base, image);
+        for (int y = 0; y < base.height; ++y) {
+            int row = y * base.width;
+            int srcRow = sourceRow(base, image, y);
+            for (int x = 0; x < base.width; ++x) {
+                int bp = dst[row + x];
+                int ip = src[srcRow + columns[x]];
+                float baseR = red(bp);
+                float baseG = green(bp);
+                float baseB = blue(bp);
+                float baseA = alpha(bp);
+
+                float imgR = red(ip) * color.r;
+                float imgG = green(ip) * color.g;
+                float imgB = blue(ip) * color.b;
+                float imgA = alpha(ip) * color.a;
+
+                float value = (baseR + baseG + baseB) / 3f;
+                if (!highlight) {
+                    value = 1 - value;
+                }
+                float a = imgA * (0.5f + 0.5f * value * value);
+
+                float r = imgR * a + baseR * (1 - a);
+                float g = imgG * a + baseG * (1 - a);
+                float b = imgB * a + baseB * (1 - a);
+                a = a * a + baseA * (1 - a);
+
+                dst[row + x] = pack(r, g, b, a);
+            }
+        }
+    }
+
+    static void mask(PixelBuffer base, PixelBuffer image) {
+        int[] dst = base.pixels;
+        int[] src = image.pixels;
+        int[] columns = columnMap(base, image);
+        for (int y = 0; y < base.height; ++y) {
+            int row = y * base.width;
+            int srcRow = sourceRow(base, image, y);
+            for (int x = 0; x < base.width; ++x) {
+                int bp = dst[row + x];
+                // Don't multiply here because that would do the wrong thing
+                float imgA = alpha(src[srcRow + columns[x]]);
+                dst[row + x] = pack(red(bp), green(bp), blue(bp), alpha(bp) * imgA);
+            }
+        }
+    }
+
+    // Raise RGB values to an exponent >= 1 (power) or <= 1 (root)
+    static void exponent(PixelBuffer base, PixelBuffer image, Color color, boolean root) {
+        int[] dst = base.pixels;
+        int[] src = image.pixels;
+        int[] columns = columnMap(base, image);
+        float[] tableR = getExponentTable(color.r, root);
+        float[] tableG = getExponentTable(color.g, root);
+        float[] tableB = getExponentTable(color.b, root);
+        for (int y = 0; y < base.height; ++y) {
+            int row = y * base.width;
+            int srcRow = sourceRow(base, image, y);
+            for (int x = 0; x < base.width; ++x) {
+                int bp = dst[row + x];
+                int ip = src[srcRow + columns[x]];
+                float baseR = red(bp);
+                float baseG = green(bp);
+                float baseB = blue(bp);
+                float baseA = alpha(bp);
+
+                float imgA = alpha(ip) * color.a;
+
+                float expR = exponent(tableR, (ip >>> RED_OFFSET) & 255, (bp >>> RED_OFFSET) & 255, color.r, root);
+                float expG = exponent(tableG, (ip >>> GREEN_OFFSET) & 255, (bp >>> GREEN_OFFSET) & 255, color.g, root);
+                float expB = exponent(tableB, (ip >>> BLUE_OFFSET) & 255, (bp >>> BLUE_OFFSET) & 255, color.b, root);
+                float a = imgA;
+
+                float r = expR * a + baseR * (1 - a);
+                float g = expG * a + baseG * (1 - a);
+                float b = expB * a + baseB * (1 - a);
+                a = a * a + baseA * (1 - a);
+
+                dst[row + x] = pack(r, g, b, a);
+            }
+        }
+    }
+
+    // Both the base and the exponent come from byte values, so for a given
+    // tint there are only 256 * 256 possible results. They are looked up in
+    // a table, indexed by (image byte << 8) | base byte, which is shared
+    // between composites and filled in as values are needed.
+    private static float[] getExponentTable(float tint, boolean root) {
+        long key = ((long)Float.floatToIntBits(tint) << 1) | (root ? 1 : 0);
+        float[] table = exponentTables.get(key);
+        if (table == null) {
+            // Tints are few in practice, but don't let the tables grow forever
+            if (exponentTables.size() >= MAX_EXPONENT_TABLES) {
+                exponentTables.clear();
+            }
+            table = exponentTables.computeIfAbsent(key, k -> {
+                float[] values = new float[256 * 256];
+                Arrays.fill(values, Float.NaN);
+                return values;
+            });
+        }
+        return table;
+    }
+
+    private static float exponent(float[] table, int imageByte, int baseByte, float tint, boolean root) {
+        int index = (imageByte << 8) | baseByte;
+        float value = table[index];
+        // NaN marks a value not calculated yet. Another thread may be filling
+        // in the same entry, but it will write the same value.
+        if (Float.isNaN(value)) {
+            float baseV = TO_FLOAT[baseByte];
+            float imgV = TO_FLOAT[imageByte] * tint;
+            if (root) {
+                // Raise color to the imgV
+                value = (float)Math.pow(baseV, imgV);
+            }
+            else {
+                // Raise color to the 1 / imgV
+                // No dividing by 0
+                value = (float)Math.pow(baseV, 1 / Math.max(0.002f, imgV));
+            }
+            table[index] = value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,244 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.resources.ResourceLocation;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.neoforge.client.event.ClientPlayerNetworkEvent;
+import net.neoforged.neoforge.client.event.CustomizeGuiOverlayEvent;
+import net.neoforged.neoforge.event.TickEvent;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
+// Keeps track of the combined horse textures registered with the texture
+// manager, and unloads the least recently rendered ones when they use more
+// video memory than the configured budget.
+@OnlyIn(Dist.CLIENT)
+public class CompositeTextureCache {
+    // Textures rendered this recently are never evicted, so that a budget
+    // smaller than what is on screen can't make textures rebuild every frame
+    private static final int MIN_FRAMES_UNUSED = 2;
+    // Even if nothing new was added, check the budget this often, since
+    // texture sizes are only known once they have loaded
+    private static final int FRAMES_BETWEEN_CHECKS = 100;
+    // How much smaller low detail textures are on each side
+    public static final int LOW_DETAIL_SCALE = 4;
+
+    // In access order, so iteration starts from the least recently used
+    private static final LinkedHashMap<TextureFingerprint, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private static long frame = 0;
+    private static long lastCheckFrame = 0;
+    private static boolean added = false;
+    private static long bytesUsed = 0;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+    private static long prefetches = 0;
+
+    private static class Entry {
+        final CustomLayeredTexture texture;
+        long lastUsedFrame;
+
+        Entry(CustomLayeredTexture texture) {
+            this.texture = texture;
+        }
+    }
+
+    // The texture to draw for a horse with these layers. Far away horses
+    // can use a low detail texture, which is smaller and quicker to make.
+    public static CustomLayeredTexture getTexture(TextureLayerGroup layers, boolean lowDetail) {
+        TextureFingerprint fingerprint = layers.getFingerprint();
+        Entry full = entries.get(fingerprint);
+        if (lowDetail && full != null && full.texture.isComplete()) {
+            // No need for a low detail texture if the full one is there
+            return use(full);
+        }
+        if (!lowDetail) {
+            if (full == null) {
+                misses++;
+                full = register(layers, fingerprint, 1, TextureCompositor.URGENT);
+            }
+            else {
+                hits++;
+                hurry(full);
+            }
+            full.lastUsedFrame = frame;
+            if (full.texture.isComplete()) {
+                return full.texture;
+            }
+            // Until the full texture is done, a low detail one looks better
+            // than the placeholder
+            Entry low = entries.get(layers.getLowDetailFingerprint());
+            if (low != null && low.texture.isComplete()) {
+                low.lastUsedFrame = frame;
+                return low.texture;
+            }
+            return full.texture;
+        }
+        Entry low = entries.get(layers.getLowDetailFingerprint());
+        if (low == null) {
+            misses++;
+            low = register(layers, layers.getLowDetailFingerprint(), LOW_DETAIL_SCALE, TextureCompositor.URGENT);
+            low.lastUsedFrame = frame;
+            return low.texture;
+        }
+        return use(low);
+    }
+
+    private static CustomLayeredTexture use(Entry entry) {
+        hits++;
+        hurry(entry);
+        entry.lastUsedFrame = frame;
+        return entry.texture;
+    }
+
+    // A prefetched texture that is now on screen shouldn't have to wait
+    // behind ones that aren't
+    private static void hurry(Entry entry) {
+        if (!entry.texture.isComplete()) {
+            entry.texture.setPriority(TextureCompositor.URGENT);
+        }
+    }
+
+    public static boolean contains(TextureLayerGroup layers, boolean lowDetail) {
+        return entries.containsKey(layers.getFingerprint())
+            || (lowDetail && entries.containsKey(layers.getLowDetailFingerprint()));
+    }
+
+    // Start building a texture that will probably be needed soon. Returns
+    // false if it was already loaded or requested.
+    public static boolean prefetch(TextureLayerGroup layers, boolean lowDetail, double priority) {
+        if (contains(layers, lowDetail)) {
+            return false;
+        }
+        prefetches++;
+        TextureFingerprint fingerprint = lowDetail ? layers.getLowDetailFingerprint() : layers.getFingerprint();
+        register(layers, fingerprint, lowDetail ? LOW_DETAIL_SCALE : 1, priority).lastUsedFrame = frame;
+        return true;
+    }
+
+    private static Entry register(TextureLayerGroup layers, TextureFingerprint fingerprint, int scale, double priority) {
+        ResourceLocation location = new ResourceLocation(HorseColors.MODID, "composite/" + fingerprint.toHexString());
+        CustomLayeredTexture texture = new CustomLayeredTexture(layers, fingerprint, location, scale);
+        texture.setPriority(priority);
+        Minecraft.getInstance().getTextureManager().register(location, texture);
+        Entry entry = new Entry(texture);
+        entries.put(fingerprint, entry);
+        added = true;
+        return entry;
+    }
+
+    public static boolean isLowDetail(double distanceSqr) {
+        int distance = HorseConfig.CLIENT.lowDetailDistance.get();
+        return distance > 0 && distanceSqr > (double)distance * distance;
+    }
+
+    public static void onRenderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase != TickEvent.Phase.START) {
+            return;
+        }
+        frame++;
+        // Evict at the start of a frame, before any texture has been queued
+        // for drawing
+        if (added || frame - lastCheckFrame >= FRAMES_BETWEEN_CHECKS) {
+            evictOverBudget();
+            added = false;
+            lastCheckFrame = frame;
+        }
+    }
+
+    private static void evictOverBudget() {
+        long budget = HorseConfig.CLIENT.textureCacheMegabytes.get() * 1024L * 1024L;
+        // Textures in the atlas are counted by the pages they take up
+        // instead, since a page stays allocated while any slot is in use
+        long separateBytes = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.texture.getAtlasSlot() == null) {
+                separateBytes += entry.texture.getSizeBytes();
+            }
+        }
+        bytesUsed = separateBytes + TextureAtlas.getAllocatedBytes();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytesUsed > budget && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (frame - entry.lastUsedFrame < MIN_FRAMES_UNUSED) {
+                // Everything after this was used at least as recently
+                break;
+            }
+            iterator.remove();
+            if (entry.texture.getAtlasSlot() == null) {
+                separateBytes -= entry.texture.getSizeBytes();
+            }
+            release(entry);
+            // Freeing the last slot of a page frees the page
+            bytesUsed = separateBytes + TextureAtlas.getAllocatedBytes();
+            evictions++;
+        }
+    }
+
+    private static void release(Entry entry) {
+        TextureManager textureManager = Minecraft.getInstance().getTextureManager();
+        // Only unregister it if it hasn't been replaced by something else
+        if (textureManager.byPath.get(entry.texture.location) == entry.texture) {
+            textureManager.byPath.remove(entry.texture.location);
+        }
+        entry.texture.releaseId();
+    }
+
+    public static void onLogout(ClientPlayerNetworkEvent.LoggingOut event) {
+        clear();
+    }
+
+    // Unload everything, for example when leaving a world
+    public static void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+        bytesUsed = 0;
+    }
+
+    public static int size() {
+        return entries.size();
+    }
+
+    public static long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public static long getHits() {
+        return hits;
+    }
+
+    public static long getMisses() {
+        return misses;
+    }
+
+    public static long getPrefetches() {
+        return prefetches;
+    }
+
+    public static long getEvictions() {
+        return evictions;
+    }
+
+    public static String getDebugString() {
+        return String.format("Horse textures: %d (%.1f MB), %d hits, %d misses, %d prefetched, %d evicted, %d queued",
+            size(), bytesUsed / (1024. * 1024.), hits, misses, prefetches, evictions, TextureCompositor.getQueueLength());
+    }
+
+    public static void addDebugText(CustomizeGuiOverlayEvent.DebugText event) {
+        event.getRight().add(getDebugString());
+        event.getRight().add(SourceTextureCache.getDebugString());
+        event.getRight().add(PrefixCompositeCache.getDebugString());
+        event.getRight().add(DiskTextureCache.getDebugString());
+        event.getRight().add(TextureAtlas.getDebugString());
+    }
+}
@@ -4,6 +4,7 @@ import net.minecraft.client.renderer.texture.*;
 import com.google.common.collect.Lists;
 import com.mojang.blaze3d.systems.RenderSystem;
 import java.io.IOException;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.neoforged.api.distmarker.Dist;
 import net.neoforged.api.distmarker.OnlyIn;
@@ -11,12 +12,35 @@ import net.neoforged.api.distmarker.OnlyIn;
 import com.mojang.blaze3d.platform.NativeImage;
 import com.mojang.blaze3d.platform.TextureUtil;
 
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
 @OnlyIn(Dist.CLIENT)
 public class CustomLayeredTexture extends AbstractTexture {
     public final TextureLayerGroup layerGroup;
+    public final TextureFingerprint fingerprint;
+    public final ResourceLocation location;
+    // How many times smaller than the source images each side is
+    public final int scale;
+    // Size of the uploaded image, or 0 if not yet loaded
+    private volatile long sizeBytes = 0;
+    // Incremented on each load so that a slow composite from before a
+    // resource reload can't overwrite a newer one
+    private int generation = 0;
+    private boolean released = false;
+    // Order in which to combine textures, see TextureCompositor
+    private double priority = TextureCompositor.URGENT;
+    // The background composite that hasn't finished yet, if any
+    private volatile TextureCompositor.Task pending = null;
+    private TextureAtlas.Slot atlasSlot = null;
+    // Whether the whole texture has been uploaded, rather than a placeholder
+    private volatile boolean complete = false;
 
-    public CustomLayeredTexture(TextureLayerGroup layers) {
+    public CustomLayeredTexture(TextureLayerGroup layers, TextureFingerprint fingerprint, ResourceLocation location, int scale) {
         this.layerGroup = layers;
+        this.fingerprint = fingerprint;
+        this.location = location;
+        this.scale = scale;
         if (this.layerGroup.layers.isEmpty()) {
             throw new IllegalStateException("Layered texture with no layers.");
         }
@@ -24,21 +48,133 @@ public class CustomLayeredTexture extends AbstractTexture {
 
     @Override
     public void load(ResourceManager manager) throws IOException {
-        NativeImage image = layerGroup.getImage(manager);
+        final int loadGeneration = ++generation;
+        complete = false;
+        // Show just the base coat until the full texture is ready
+        NativeImage placeholder = getPlaceholder(manager);
+        if (placeholder != null) {
+            uploadOnRenderThread(placeholder, loadGeneration, false);
+        }
 
-        if (!RenderSystem.isOnRenderThreadOrInit()) {
-            RenderSystem.recordRenderCall(() -> {
-                this.loadImage(image);
+        // Interpolated textures are blended from finished keyframes instead
+        if (GpuCompositor.isEnabled() && !(layerGroup instanceof InterpolatedTextureLayerGroup)) {
+            GpuCompositor.submit(() -> {
+                if (released || loadGeneration != generation) {
+                    return;
+                }
+                NativeImage image = GpuCompositor.composite(layerGroup, manager, scale);
+                if (image != null) {
+                    upload(image, loadGeneration, true);
+                }
+                else {
+                    compositeOnCpu(manager, loadGeneration);
+                }
             });
-        } else {
-            this.loadImage(image);
         }
+        else {
+            compositeOnCpu(manager, loadGeneration);
+        }
+   }
+
+   private void compositeOnCpu(ResourceManager manager, int loadGeneration) {
+      TextureCompositor.Task task = TextureCompositor.composite(layerGroup, fingerprint, scale, manager, priority);
+      pending = task;
+      task.getResult().whenComplete((image, exception) -> {
+         if (pending == task) {
+            pending = null;
+         }
+         if (exception != null) {
+            HorseColors.logger.error("Couldn't combine texture layers for " + layerGroup, exception);
+         }
+         else if (image != null) {
+            uploadOnRenderThread(image, loadGeneration, true);
+         }
+      });
    }
 
-   private void loadImage(NativeImage imageIn) {
+   // The first layer by itself, if that can be made cheaply
+   private NativeImage getPlaceholder(ResourceManager manager) {
+      TextureLayer base = layerGroup.layers.get(0);
+      if (base == null || base instanceof TextureLayerGroup) {
+         return null;
+      }
+      PixelBuffer pixels = base.getPixels(manager);
+      return pixels == null ? null : pixels.downscale(scale).toNativeImage();
+   }
+
+   private void uploadOnRenderThread(NativeImage image, int loadGeneration, boolean finished) {
+      if (!RenderSystem.isOnRenderThreadOrInit()) {
+         RenderSystem.recordRenderCall(() -> {
+            this.upload(image, loadGeneration, finished);
+         });
+      } else {
+         this.upload(image, loadGeneration, finished);
+      }
+   }
+
+   private void upload(NativeImage imageIn, int loadGeneration, boolean finished) {
+      // Skip if this texture was unloaded or reloaded in the meantime
+      if (released || loadGeneration != generation) {
+         imageIn.close();
+         return;
+      }
+      complete = finished;
+      sizeBytes = 4L * imageIn.getWidth() * imageIn.getHeight();
+      if (atlasSlot == null && HorseConfig.CLIENT.textureAtlas.get()) {
+         atlasSlot = TextureAtlas.allocate(imageIn.getWidth(), imageIn.getHeight());
+      }
+      if (atlasSlot != null) {
+         if (imageIn.getWidth() == TextureAtlas.SLOT_SIZE && imageIn.getHeight() == TextureAtlas.SLOT_SIZE) {
+            atlasSlot.upload(imageIn);
+            return;
+         }
+         // Doesn't fit any more, so go back to a texture of its own
+         atlasSlot.free();
+         atlasSlot = null;
+      }
       TextureUtil.prepareImage(this.getId(), imageIn.getWidth(), imageIn.getHeight());
       imageIn.upload(0, 0, 0, true);
    }
 
+   public boolean isComplete() {
+      return complete;
+   }
 
+   // Where to find this texture when rendering, which is the atlas page if
+   // it is in one
+   public ResourceLocation getRenderLocation() {
+      return atlasSlot == null ? location : atlasSlot.page.location;
+   }
+
+   // Null unless this texture is stored in an atlas page rather than by itself
+   public TextureAtlas.Slot getAtlasSlot() {
+      return atlasSlot;
+   }
+
+   // Can be called while the texture is being combined, for example when a
+   // prefetched texture comes into view before it is done
+   public void setPriority(double priority) {
+      if (priority == this.priority) {
+         return;
+      }
+      this.priority = priority;
+      TextureCompositor.Task task = pending;
+      if (task != null) {
+         TextureCompositor.setPriority(task, priority);
+      }
+   }
+
+   @Override
+   public void releaseId() {
+      released = true;
+      if (atlasSlot != null) {
+         atlasSlot.free();
+         atlasSlot = null;
+      }
+      super.releaseId();
+   }
+
+   public long getSizeBytes() {
+      return sizeBytes;
+   }
 }
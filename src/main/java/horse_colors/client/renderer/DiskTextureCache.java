@@ -0,0 +1,299 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.fml.ModList;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
+// Keeps finished horse textures on disk between sessions, so rejoining a
+// world with many horses doesn't mean building every texture again.
+//
+// Files go in a directory named after a hash of the enabled resource packs,
+// the source textures, the mod version, and the file format, so changing any
+// of them starts a fresh cache and the old directory is deleted. Each file
+// holds the width, height, and raw RGBA pixels of one texture, named by its
+// layer fingerprint.
+@OnlyIn(Dist.CLIENT)
+public class DiskTextureCache {
+    private static final int MAGIC = 0x48434331;
+    // Increase whenever textures would come out differently, such as after a
+    // change to how layers are blended, so old files aren't used any more
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 12;
+    private static final String EXTENSION = ".rgba";
+    private static final String TEMP_EXTENSION = ".tmp";
+    // Temporary files this old were left by a write that never finished,
+    // for example because the game was closed part way through
+    private static final long STALE_TEMP_MILLIS = 60 * 1000;
+    private static final int WRITES_BETWEEN_CLEANUPS = 64;
+
+    // Null until the sources have been hashed, or if the cache is disabled
+    private static volatile Path directory = null;
+    private static final AtomicInteger generation = new AtomicInteger();
+    private static final AtomicInteger writesSinceCleanup = new AtomicInteger();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static long getMaxBytes() {
+        return HorseConfig.CLIENT.diskCacheMegabytes.get() * 1024L * 1024L;
+    }
+
+    private static Path getRoot() {
+        return Minecraft.getInstance().gameDirectory.toPath().resolve(HorseColors.MODID).resolve("texture_cache");
+    }
+
+    // Called after resources are reloaded, with the source textures that were
+    // read in up front (possibly none) and the ids of the enabled packs
+    public static void onSourcesReloaded(Map<String, PixelBuffer> sources, List<String> packIds, ResourceManager manager) {
+        directory = null;
+        int current = generation.incrementAndGet();
+        if (getMaxBytes() <= 0) {
+            return;
+        }
+        Path root = getRoot();
+        // Hashing the sources takes a moment, so do it off the main thread
+        Util.ioPool().execute(() -> {
+            Path dir = root.resolve(hashSources(sources, packIds, manager).toHexString());
+            try {
+                Files.createDirectories(dir);
+                deleteOtherVersions(root, dir);
+                cleanUp(dir);
+            }
+            catch (IOException e) {
+                HorseColors.logger.warn("Could not set up texture cache in " + dir, e);
+                return;
+            }
+            // Don't overwrite the result of a later reload
+            if (generation.get() == current) {
+                directory = dir;
+            }
+        });
+    }
+
+    private static TextureFingerprint hashSources(Map<String, PixelBuffer> sources, List<String> packIds, ResourceManager manager) {
+        TextureFingerprint.Builder builder = new TextureFingerprint.Builder();
+        builder.add(FORMAT_VERSION);
+        builder.add(ModList.get().getModContainerById(HorseColors.MODID)
+            .map(container -> container.getModInfo().getVersion().toString()).orElse(""));
+        builder.add(packIds.size());
+        for (String id : packIds) {
+            builder.add(id);
+        }
+        // Sorted so that the order the files were listed in doesn't matter
+        for (Map.Entry<String, PixelBuffer> entry : new TreeMap<>(sources).entrySet()) {
+            PixelBuffer image = entry.getValue();
+            builder.add(entry.getKey()).add(image.width).add(image.height);
+            for (int pixel : image.pixels) {
+                builder.add(pixel);
+            }
+        }
+        if (sources.isEmpty()) {
+            // Nothing was preloaded, so hash the files as they are. A pack
+            // can change a texture without changing its id.
+            for (Map.Entry<ResourceLocation, Resource> entry : new TreeMap<>(SourceTextureCache.listSources(manager)).entrySet()) {
+                builder.add(entry.getKey().toString());
+                try (InputStream stream = entry.getValue().open()) {
+                    byte[] bytes = stream.readAllBytes();
+                    builder.add(bytes.length);
+                    for (byte b : bytes) {
+                        builder.add(b);
+                    }
+                }
+                catch (IOException e) {
+                    // It won't load later either, so leaving it out is fine
+                    HorseColors.logger.debug("Could not hash " + entry.getKey(), e);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    // Returns null if the texture isn't cached or couldn't be read
+    public static PixelBuffer read(TextureFingerprint fingerprint) {
+        Path dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        Path file = dir.resolve(fingerprint.toHexString() + EXTENSION);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated cached texture " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (magic != MAGIC || width <= 0 || height <= 0
+                    || size != HEADER_BYTES + 4L * width * height) {
+                throw new IOException("Invalid cached texture " + file);
+            }
+            int[] pixels = new int[width * height];
+            buffer.asIntBuffer().get(pixels);
+            // Modification time is used to tell which files were least
+            // recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return new PixelBuffer(width, height, pixels);
+        }
+        catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+        catch (IOException e) {
+            HorseColors.logger.warn("Could not read cached texture, deleting it", e);
+            misses.incrementAndGet();
+            delete(file);
+            return null;
+        }
+    }
+
+    public static void write(TextureFingerprint fingerprint, PixelBuffer image) {
+        Path dir = directory;
+        if (dir == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * image.pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(image.width).putInt(image.height);
+        buffer.asIntBuffer().put(image.pixels);
+        Path file = dir.resolve(fingerprint.toHexString() + EXTENSION);
+        Path temp = null;
+        try {
+            // Write to a temporary file first so other threads never see
+            // a partly written one
+            temp = Files.createTempFile(dir, fingerprint.toHexString(), TEMP_EXTENSION);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            HorseColors.logger.warn("Could not write cached texture " + file, e);
+            if (temp != null) {
+                delete(temp);
+            }
+            return;
+        }
+        if (writesSinceCleanup.incrementAndGet() >= WRITES_BETWEEN_CLEANUPS) {
+            writesSinceCleanup.set(0);
+            try {
+                cleanUp(dir);
+            }
+            catch (IOException e) {
+                HorseColors.logger.warn("Could not clean up texture cache in " + dir, e);
+            }
+        }
+    }
+
+    // Delete the least recently used files until within the size limit, and
+    // any temporary files left behind
+    private static void cleanUp(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (file.toString().endsWith(EXTENSION)) {
+                    files.add(file);
+                    total += Files.size(file);
+                }
+                // Newer ones may still be being written by another thread
+                else if (file.toString().endsWith(TEMP_EXTENSION)
+                        && getLastModified(file).toMillis() < staleBefore) {
+                    delete(file);
+                }
+            }
+        }
+        long max = getMaxBytes();
+        if (total <= max) {
+            return;
+        }
+        files.sort(Comparator.comparing(DiskTextureCache::getLastModified));
+        for (Path file : files) {
+            if (total <= max) {
+                break;
+            }
+            long size = Files.size(file);
+            if (delete(file)) {
+                total -= size;
+            }
+        }
+    }
+
+    private static FileTime getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    // Old directories are from resource packs or textures that have since
+    // changed
+    private static void deleteOtherVersions(Path root, Path current) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path dir : stream) {
+                if (!dir.equals(current) && Files.isDirectory(dir)) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                        for (Path file : files) {
+                            delete(file);
+                        }
+                    }
+                    delete(dir);
+                }
+            }
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        }
+        catch (IOException e) {
+            // Can happen on Windows if the file is still mapped, in which
+            // case it will be tried again next time
+            return false;
+        }
+    }
+
+    public static String getDebugString() {
+        if (directory == null) {
+            return "Horse texture disk cache: off";
+        }
+        return String.format("Horse texture disk cache: %d hits, %d misses", hits.get(), misses.get());
+    }
+}
@@ -0,0 +1,305 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.mojang.blaze3d.pipeline.RenderTarget;
+import com.mojang.blaze3d.pipeline.TextureTarget;
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.ShaderInstance;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.neoforge.client.event.RegisterShadersEvent;
+import net.neoforged.neoforge.event.TickEvent;
+import org.lwjgl.opengl.GL11;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
+// Combines texture layers on the GPU by drawing each one into a framebuffer
+// with the layer_blend shader, which implements the same blend modes as
+// BlendKernels. Source images are uploaded once each and kept as textures.
+// Everything here must run on the render thread, so requests wait in a
+// queue and only a couple of milliseconds' worth are done each frame. The
+// CPU compositor is still used when this is disabled or fails, or when the
+// first result after loading resources doesn't match what the CPU makes.
+// Off by default, since it can't be checked against every driver.
+@OnlyIn(Dist.CLIENT)
+public class GpuCompositor {
+    // Mode for the shader to only tint the layer, see layer_blend.fsh
+    private static final int COLOR_MODE = 7;
+
+    private static ShaderInstance shader = null;
+    private static final Map<String, DynamicTexture> sources = new HashMap<>();
+    private static boolean failed = false;
+    // Whether a result has been compared with the CPU's since resources loaded
+    private static boolean checked = false;
+    // A rounding difference early on can be magnified by a later power
+    // layer, so allow a few pixels to be off by more than one
+    private static final double MAX_MISMATCHED_FRACTION = 0.001;
+    // Time per frame to spend combining textures, so that a herd coming into
+    // view doesn't make one frame take much longer than the rest
+    private static final long NANOS_PER_FRAME = 2_000_000;
+    private static final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    public static void registerShaders(RegisterShadersEvent event) throws IOException {
+        event.registerShader(new ShaderInstance(event.getResourceProvider(),
+            new ResourceLocation(HorseColors.MODID, "layer_blend"), DefaultVertexFormat.POSITION),
+            loaded -> shader = loaded);
+    }
+
+    public static boolean isEnabled() {
+        return shader != null && !failed && HorseConfig.CLIENT.gpuCompositing.get();
+    }
+
+    // Run the job on the render thread during a later frame. The job
+    // should check that its texture is still wanted before doing anything.
+    public static void submit(Runnable job) {
+        pending.add(job);
+    }
+
+    public static void onRenderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase != TickEvent.Phase.START) {
+            return;
+        }
+        long start = System.nanoTime();
+        Runnable job;
+        // Always do at least one, even if it takes the whole budget
+        while ((job = pending.poll()) != null) {
+            job.run();
+            if (System.nanoTime() - start >= NANOS_PER_FRAME) {
+                break;
+            }
+        }
+    }
+
+    // Returns null if the layers could not be combined this way, in which
+    // case the caller should fall back to the CPU
+    public static NativeImage composite(TextureLayerGroup layers, ResourceManager manager, int scale) {
+        RenderSystem.assertOnRenderThread();
+        if (!isEnabled()) {
+            return null;
+        }
+        // Put back afterwards whatever draw() changes, for whatever is
+        // drawn next
+        boolean blend = GL11.glIsEnabled(GL11.GL_BLEND);
+        boolean depthTest = GL11.glIsEnabled(GL11.GL_DEPTH_TEST);
+        RenderTarget uncolored = null;
+        RenderTarget colored = null;
+        NativeImage image = null;
+        try {
+            uncolored = compositeUncolored(layers, manager, scale);
+            if (uncolored == null) {
+                return null;
+            }
+            // Tint the whole group by its own color, as colorLayer does
+            colored = newTarget(uncolored.width, uncolored.height);
+            draw(colored, null, uncolored.getColorTextureId(), COLOR_MODE, layers);
+
+            image = new NativeImage(colored.width, colored.height, false);
+            RenderSystem.bindTexture(colored.getColorTextureId());
+            image.downloadTexture(0, false);
+            if (!checked) {
+                checked = true;
+                if (!matchesCpu(layers, manager, scale, image)) {
+                    image.close();
+                    failed = true;
+                    return null;
+                }
+            }
+            NativeImage result = image;
+            image = null;
+            return result;
+        }
+        catch (Exception e) {
+            // Don't keep trying if the driver can't do this
+            HorseColors.logger.error("Couldn't combine horse texture on the GPU, using the CPU from now on", e);
+            failed = true;
+            if (image != null) {
+                image.close();
+            }
+            return null;
+        }
+        finally {
+            if (uncolored != null) {
+                uncolored.destroyBuffers();
+            }
+            if (colored != null) {
+                colored.destroyBuffers();
+            }
+            if (blend) {
+                RenderSystem.enableBlend();
+            }
+            if (depthTest) {
+                RenderSystem.enableDepthTest();
+            }
+            Minecraft.getInstance().getMainRenderTarget().bindWrite(true);
+        }
+    }
+
+    // Drivers differ in how they round and how precise pow is, so check
+    // once that this driver gives the same colors as BlendKernels
+    private static boolean matchesCpu(TextureLayerGroup layers, ResourceManager manager, int scale, NativeImage image) {
+        PixelBuffer expected = layers.getPixels(manager, scale);
+        if (expected == null) {
+            return true;
+        }
+        PixelBuffer actual = PixelBuffer.of(image);
+        if (actual.width != expected.width || actual.height != expected.height) {
+            HorseColors.logger.warn("Horse texture combined on the GPU is " + actual.width + "x" + actual.height
+                + " instead of " + expected.width + "x" + expected.height + ", using the CPU from now on");
+            return false;
+        }
+        int mismatched = 0;
+        int maxDiff = 0;
+        for (int i = 0; i < expected.pixels.length; ++i) {
+            int a = expected.pixels[i];
+            int b = actual.pixels[i];
+            int diff = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                diff = Math.max(diff, Math.abs(((a >>> shift) & 255) - ((b >>> shift) & 255)));
+            }
+            if (diff > 1) {
+                mismatched++;
+            }
+            maxDiff = Math.max(maxDiff, diff);
+        }
+        if (mismatched > expected.pixels.length * MAX_MISMATCHED_FRACTION) {
+            HorseColors.logger.warn("Horse texture combined on the GPU differs from the CPU in " + mismatched + " of "
+                + expected.pixels.length + " pixels, by up to " + maxDiff + ", using the CPU from now on");
+            return false;
+        }
+        return true;
+    }
+
+    // The equivalent of TextureLayerGroup.getUncoloredPixels
+    private static RenderTarget compositeUncolored(TextureLayerGroup layers, ResourceManager manager, int scale) {
+        TextureLayer baseLayer = layers.layers.get(0);
+        DynamicTexture baseSource = getSource(baseLayer, manager);
+        if (baseSource == null) {
+            return null;
+        }
+        NativeImage basePixels = baseSource.getPixels();
+        RenderTarget current = null;
+        RenderTarget next = null;
+        boolean finished = false;
+        try {
+            current = newTarget(Math.max(1, basePixels.getWidth() / scale),
+                Math.max(1, basePixels.getHeight() / scale));
+            next = newTarget(current.width, current.height);
+            draw(current, null, baseSource.getId(), COLOR_MODE, baseLayer);
+
+            for (int i = 1; i < layers.layers.size(); ++i) {
+                TextureLayer layer = layers.layers.get(i);
+                if (layer == null) {
+                    continue;
+                }
+                RenderTarget group = null;
+                try {
+                    int layerTexture;
+                    if (layer instanceof TextureLayerGroup) {
+                        group = compositeUncolored((TextureLayerGroup)layer, manager, 1);
+                        if (group == null) {
+                            continue;
+                        }
+                        layerTexture = group.getColorTextureId();
+                    }
+                    else {
+                        DynamicTexture source = getSource(layer, manager);
+                        if (source == null) {
+                            continue;
+                        }
+                        layerTexture = source.getId();
+                    }
+                    draw(next, current, layerTexture, layer.type.ordinal(), layer);
+                }
+                finally {
+                    if (group != null) {
+                        group.destroyBuffers();
+                    }
+                }
+                RenderTarget swap = current;
+                current = next;
+                next = swap;
+            }
+            finished = true;
+            return current;
+        }
+        finally {
+            if (next != null) {
+                next.destroyBuffers();
+            }
+            // The caller only frees the result if it gets it
+            if (!finished && current != null) {
+                current.destroyBuffers();
+            }
+        }
+    }
+
+    private static RenderTarget newTarget(int width, int height) {
+        RenderTarget target = new TextureTarget(width, height, false, Minecraft.ON_OSX);
+        target.setClearColor(0, 0, 0, 0);
+        target.clear(Minecraft.ON_OSX);
+        return target;
+    }
+
+    // Draw one layer over the base into the target
+    private static void draw(RenderTarget target, RenderTarget base, int layerTexture, int mode, TextureLayer layer) {
+        target.bindWrite(true);
+        RenderSystem.disableBlend();
+        RenderSystem.disableDepthTest();
+        RenderSystem.setShader(() -> shader);
+        RenderSystem.setShaderTexture(0, base == null ? layerTexture : base.getColorTextureId());
+        RenderSystem.setShaderTexture(1, layerTexture);
+        shader.safeGetUniform("Mode").set(mode);
+        shader.safeGetUniform("OutSize").set(target.width, target.height);
+        shader.safeGetUniform("Tint").set(layer.color.r, layer.color.g, layer.color.b, layer.color.a);
+
+        BufferBuilder builder = Tesselator.getInstance().getBuilder();
+        builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION);
+        builder.vertex(-1, -1, 0).endVertex();
+        builder.vertex(1, -1, 0).endVertex();
+        builder.vertex(1, 1, 0).endVertex();
+        builder.vertex(-1, 1, 0).endVertex();
+        BufferUploader.drawWithShader(builder.end());
+    }
+
+    private static DynamicTexture getSource(TextureLayer layer, ResourceManager manager) {
+        if (layer.name == null) {
+            return null;
+        }
+        DynamicTexture texture = sources.get(layer.name);
+        if (texture == null) {
+            PixelBuffer pixels = SourceTextureCache.get(layer.name, manager);
+            if (pixels == null) {
+                return null;
+            }
+            texture = new DynamicTexture(pixels.toNativeImage());
+            sources.put(layer.name, texture);
+        }
+        return texture;
+    }
+
+    // Called when resources reload
+    public static void clear() {
+        for (DynamicTexture texture : sources.values()) {
+            texture.close();
+        }
+        sources.clear();
+        failed = false;
+        checked = false;
+    }
+}
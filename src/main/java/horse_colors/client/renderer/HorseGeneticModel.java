@@ -137,6 +137,7 @@ public class HorseGeneticModel<T extends AbstractHorse> extends AgeableListModel
     private final ModelPart[] extraTackArray;
 
     private float ageScale = 0.5f;
+    private TextureAtlas.Slot atlasSlot = null;
 
     public HorseGeneticModel(ModelPart root)
     {
@@ -519,13 +520,19 @@ public class HorseGeneticModel<T extends AbstractHorse> extends AgeableListModel
         return ImmutableList.of(this.body, this.neck, this.backLeftThigh, this.backRightThigh, this.frontLeftLeg, this.frontRightLeg, this.leftChest, this.rightChest);
     }
 
+    // Set while rendering a horse whose texture is in an atlas page
+    public void setAtlasSlot(TextureAtlas.Slot slot) {
+        this.atlasSlot = slot;
+    }
+
     // Copied and modified from the familiar horses mod as allowed by the Unlicense
     /**
      * Sets the models various rotation angles then renders the model.
      */
     @Override
     public void renderToBuffer(@Nonnull PoseStack matrixStackIn, @Nonnull VertexConsumer bufferIn, int packedLightIn, int packedOverlayIn, float red, float green, float blue, float alpha) {
-        Consumer<ModelPart> render = model -> model.render(matrixStackIn, bufferIn, packedLightIn, packedOverlayIn, red, green, blue, alpha);
+        VertexConsumer buffer = atlasSlot == null ? bufferIn : atlasSlot.remap(bufferIn);
+        Consumer<ModelPart> render = model -> model.render(matrixStackIn, buffer, packedLightIn, packedOverlayIn, red, green, blue, alpha);
 
         // ageScale is 0.5f for the smallest foals
         if (this.young) {
@@ -1,10 +1,8 @@
 package sekelsta.horse_colors.client.renderer;
 
 import com.mojang.blaze3d.vertex.PoseStack;
-import com.google.common.collect.Maps;
-import java.util.Map;
-import net.minecraft.client.Minecraft;
 import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.entity.EntityRendererProvider;
 import net.minecraft.client.renderer.entity.MobRenderer;
 import net.minecraft.resources.ResourceLocation;
@@ -12,7 +10,6 @@ import net.neoforged.api.distmarker.Dist;
 import net.neoforged.api.distmarker.OnlyIn;
 
 import sekelsta.horse_colors.HorseColors;
-import sekelsta.horse_colors.client.renderer.TextureLayer;
 import sekelsta.horse_colors.entity.AbstractHorseGenetic;
 import sekelsta.horse_colors.entity.genetics.IGeneticEntity;
 import sekelsta.horse_colors.entity.genetics.HorseColorCalculator;
@@ -21,9 +18,11 @@ import sekelsta.horse_colors.entity.genetics.HorseColorCalculator;
 @OnlyIn(Dist.CLIENT)
 public class HorseGeneticRenderer extends MobRenderer<AbstractHorseGenetic, HorseGeneticModel<AbstractHorseGenetic>>
 {
-    private static final Map<TextureLayer, ResourceLocation> LAYERED_LOCATION_CACHE = Maps.newHashMap();
     public static final ModelLayerLocation EQUINE_LAYER = new ModelLayerLocation(new ResourceLocation(HorseColors.MODID, "equine"), "equine");
 
+    // The texture of the horse currently being rendered
+    private CustomLayeredTexture texture = null;
+
     public HorseGeneticRenderer(EntityRendererProvider.Context renderManager)
     {
         super(renderManager, new HorseGeneticModel<AbstractHorseGenetic>(renderManager.bakeLayer(EQUINE_LAYER)), 0.75F);
@@ -39,6 +38,23 @@ public class HorseGeneticRenderer extends MobRenderer<AbstractHorseGenetic, Hors
         super.scale(horse, matrixStackIn, partialTickTime);
     }
 
+    @Override
+    public void render(AbstractHorseGenetic entity, float entityYaw, float partialTicks, PoseStack poseStack, MultiBufferSource buffer, int packedLight) {
+        this.texture = getTexture(entity);
+        // The model has to know which part of the atlas page to draw from,
+        // if the texture is in one
+        this.model.setAtlasSlot(texture.getAtlasSlot());
+        super.render(entity, entityYaw, partialTicks, poseStack, buffer, packedLight);
+        this.model.setAtlasSlot(null);
+        this.texture = null;
+    }
+
+    private CustomLayeredTexture getTexture(AbstractHorseGenetic entity) {
+        TextureLayerGroup layers = entity.getGenome().getTexturePaths();
+        boolean lowDetail = CompositeTextureCache.isLowDetail(this.entityRenderDispatcher.distanceToSqr(entity));
+        return CompositeTextureCache.getTexture(layers, lowDetail);
+    }
+
     /**
      * Returns the location of an entity's texture. Doesn't seem to be called unless you call EntityRenderer.bindEntityTexture.
      */
@@ -46,20 +62,9 @@ public class HorseGeneticRenderer extends MobRenderer<AbstractHorseGenetic, Hors
     public ResourceLocation getTextureLocation(AbstractHorseGenetic entity)
     {
         if (entity instanceof IGeneticEntity) {
-            TextureLayer l = ((IGeneticEntity)entity).getGenome().getTexturePaths();
-            ResourceLocation resourcelocation = LAYERED_LOCATION_CACHE.get(l);
-
-            if (resourcelocation == null)
-            {
-                resourcelocation = new ResourceLocation(l.getUniqueName());
-                Minecraft.getInstance().getTextureManager().register(
-                    resourcelocation, 
-                    new CustomLayeredTexture(((IGeneticEntity)entity).getGenome().getTexturePaths())
-                );
-                LAYERED_LOCATION_CACHE.put(l, resourcelocation);
-            }
-
-            return resourcelocation;
+            // Already looked up if this is during render()
+            CustomLayeredTexture current = this.texture != null ? this.texture : getTexture(entity);
+            return current.getRenderLocation();
         }
         System.out.println("Trying to render an ineligible entity");
         return null;
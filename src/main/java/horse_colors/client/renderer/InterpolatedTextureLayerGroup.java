@@ -0,0 +1,119 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+
+// A texture partway between two others, made by blending their finished
+// images. Used for gray horses, whose colors darken a little at a time as
+// they age: only a few keyframe stages are fully combined, and are shared
+// by all the stages between them.
+@OnlyIn(Dist.CLIENT)
+public class InterpolatedTextureLayerGroup extends TextureLayerGroup {
+    private static final long MAX_KEYFRAME_BYTES = 16L * 1024L * 1024L;
+
+    // Finished keyframe images, by fingerprint and scale
+    private static final LinkedHashMap<TextureFingerprint, PixelBuffer> keyframes = new LinkedHashMap<>(16, 0.75f, true);
+    private static long keyframeBytes = 0;
+
+    public final TextureLayerGroup from;
+    public final TextureLayerGroup to;
+    // 0 for from, 1 for to
+    public final float weight;
+    private TextureFingerprint fingerprint = null;
+
+    public InterpolatedTextureLayerGroup(TextureLayerGroup from, TextureLayerGroup to, float weight) {
+        // Share the first keyframe's layers, so that it can stand in for
+        // placeholders and debug info
+        super(from.layers);
+        this.from = from;
+        this.to = to;
+        this.weight = weight;
+    }
+
+    @Override
+    public TextureFingerprint getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = new TextureFingerprint.Builder()
+                .add(from.getFingerprint())
+                .add(to.getFingerprint())
+                .add(Float.floatToIntBits(weight))
+                .build();
+        }
+        return fingerprint;
+    }
+
+    @Override
+    protected TextureFingerprint.Builder addToFingerprint(TextureFingerprint.Builder builder) {
+        return builder.add(getFingerprint());
+    }
+
+    @Override
+    public PixelBuffer composite(ResourceManager manager, int scale) {
+        return getPixels(manager, scale);
+    }
+
+    @Override
+    protected PixelBuffer getPixels(ResourceManager manager, int scale) {
+        PixelBuffer a = getKeyframe(from, manager, scale);
+        PixelBuffer b = getKeyframe(to, manager, scale);
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a.width != b.width || a.height != b.height) {
+            // Can only happen if a resource pack has mismatched textures
+            return new PixelBuffer(weight < 0.5f ? a : b);
+        }
+        PixelBuffer result = new PixelBuffer(a.width, a.height);
+        for (int i = 0; i < result.pixels.length; ++i) {
+            result.pixels[i] = lerp(a.pixels[i], b.pixels[i], weight);
+        }
+        return result;
+    }
+
+    private static int lerp(int a, int b, float t) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int ca = (a >>> shift) & 255;
+            int cb = (b >>> shift) & 255;
+            result |= ((int)(ca + (cb - ca) * t) & 255) << shift;
+        }
+        return result;
+    }
+
+    private static PixelBuffer getKeyframe(TextureLayerGroup layers, ResourceManager manager, int scale) {
+        TextureFingerprint key = layers.getFingerprint().scaled(scale);
+        synchronized (keyframes) {
+            PixelBuffer image = keyframes.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+        PixelBuffer image = layers.composite(manager, scale);
+        if (image == null) {
+            return null;
+        }
+        synchronized (keyframes) {
+            if (keyframes.put(key, image) == null) {
+                keyframeBytes += image.getSizeBytes();
+            }
+            Iterator<PixelBuffer> iterator = keyframes.values().iterator();
+            while (keyframeBytes > MAX_KEYFRAME_BYTES && iterator.hasNext()) {
+                keyframeBytes -= iterator.next().getSizeBytes();
+                iterator.remove();
+            }
+        }
+        return image;
+    }
+
+    // Called when resources reload
+    public static void clearKeyframes() {
+        synchronized (keyframes) {
+            keyframes.clear();
+            keyframeBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package sekelsta.horse_colors.client.renderer;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import org.lwjgl.system.MemoryUtil;
+
+// An image held as packed ints on the heap, in the same layout as
+// NativeImage.getPixelRGBA (red in the lowest byte, alpha in the highest),
+// so that layers can be combined without going through NativeImage one
+// channel at a time. Note that NativeImage.getPixelsRGBA is NOT this
+// layout, since it swaps red and blue.
+@OnlyIn(Dist.CLIENT)
+public class PixelBuffer {
+    public final int width;
+    public final int height;
+    public final int[] pixels;
+
+    public PixelBuffer(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public PixelBuffer(int width, int height, int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + pixels.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public PixelBuffer(PixelBuffer copy) {
+        this(copy.width, copy.height, copy.pixels.clone());
+    }
+
+    // A smaller copy with each side divided by the given amount, sampled by
+    // nearest neighbour
+    public PixelBuffer downscale(int divisor) {
+        if (divisor == 1) {
+            return new PixelBuffer(this);
+        }
+        int w = Math.max(1, width / divisor);
+        int h = Math.max(1, height / divisor);
+        PixelBuffer result = new PixelBuffer(w, h);
+        for (int y = 0; y < h; ++y) {
+            int srcRow = (y * height / h) * width;
+            for (int x = 0; x < w; ++x) {
+                result.pixels[y * w + x] = pixels[srcRow + x * width / w];
+            }
+        }
+        return result;
+    }
+
+    // The image must be in RGBA format
+    public static PixelBuffer of(NativeImage image) {
+        if (image.format() != NativeImage.Format.RGBA) {
+            throw new IllegalArgumentException("Expected RGBA image, got " + image.format());
+        }
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        // Bulk copy of the native pixels, the reverse of toNativeImage
+        MemoryUtil.memIntBuffer(image.pixels, pixels.length).get(pixels);
+        PixelBuffer buffer = new PixelBuffer(image.getWidth(), image.getHeight(), pixels);
+        buffer.checkLayout(image);
+        return buffer;
+    }
+
+    // Cheap check that the channels line up with what NativeImage itself
+    // reads, since a mismatch would tint every texture the wrong color
+    private void checkLayout(NativeImage image) {
+        if (width == 0 || height == 0) {
+            return;
+        }
+        int[] xs = {0, width - 1, width / 2};
+        int[] ys = {0, height - 1, height / 2};
+        for (int i = 0; i < xs.length; ++i) {
+            int expected = image.getPixelRGBA(xs[i], ys[i]);
+            if (pixels[ys[i] * width + xs[i]] != expected) {
+                throw new IllegalStateException("Pixel layout does not match NativeImage at "
+                    + xs[i] + ", " + ys[i]);
+            }
+        }
+    }
+
+    public NativeImage toNativeImage() {
+        NativeImage image = new NativeImage(NativeImage.Format.RGBA, width, height, false);
+        // One bulk copy instead of a call per pixel
+        MemoryUtil.memIntBuffer(image.pixels, pixels.length).put(pixels);
+        return image;
+    }
+
+    public long getSizeBytes() {
+        return 4L * pixels.length;
+    }
+}
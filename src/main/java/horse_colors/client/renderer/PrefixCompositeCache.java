@@ -0,0 +1,146 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+
+// Most horses start with the same few layers (base coat, black body,
+// mealy...) and differ only in what comes after. This keeps partly
+// combined images, keyed by a fingerprint of the layers that went into
+// them, so a new texture only has to apply the layers after the longest
+// prefix it shares with one built before.
+//
+// To avoid storing a copy of every step of every texture, an image is only
+// kept for a prefix that has been seen at least once before, and only for
+// the longest such prefix of each texture.
+@OnlyIn(Dist.CLIENT)
+public class PrefixCompositeCache {
+    private static final long MAX_BYTES = 32L * 1024L * 1024L;
+    private static final int MAX_SEEN = 4096;
+
+    // Partial images in access order, for dropping the least recently used
+    private static final LinkedHashMap<TextureFingerprint, PixelBuffer> images = new LinkedHashMap<>(64, 0.75f, true);
+    // Prefixes that textures have been built from recently
+    private static final LinkedHashMap<TextureFingerprint, Boolean> seen = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TextureFingerprint, Boolean> eldest) {
+            return size() > MAX_SEEN;
+        }
+    };
+    private static long bytesUsed = 0;
+
+    private static long layersApplied = 0;
+    private static long layersSkipped = 0;
+
+    // Same result as layers.getPixels(manager)
+    public static PixelBuffer composite(TextureLayerGroup layers, ResourceManager manager) {
+        int count = layers.layers.size();
+        TextureFingerprint[] prefixes = getPrefixes(layers);
+
+        // Find the longest prefix with an image already, and the longest
+        // one that is worth keeping an image of
+        PixelBuffer base = null;
+        int start = 0;
+        int keep = -1;
+        synchronized (PrefixCompositeCache.class) {
+            for (int i = count - 1; i >= 0 && base == null; --i) {
+                PixelBuffer cached = images.get(prefixes[i]);
+                if (cached != null) {
+                    base = new PixelBuffer(cached);
+                    start = i + 1;
+                }
+                else if (keep < 0 && i < count - 1 && seen.containsKey(prefixes[i])) {
+                    keep = i;
+                }
+            }
+            for (TextureFingerprint prefix : prefixes) {
+                seen.put(prefix, Boolean.TRUE);
+            }
+        }
+
+        if (base == null) {
+            base = layers.layers.get(0).getPixels(manager);
+            if (base == null) {
+                // getPixels() will already have logged an error
+                return null;
+            }
+            start = 1;
+            if (keep == 0) {
+                store(prefixes[0], base);
+            }
+        }
+
+        for (int i = start; i < count; ++i) {
+            TextureLayer layer = layers.layers.get(i);
+            if (layer != null) {
+                try {
+                    layer.apply(base, manager);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("Unable to combine images adding layer "
+                                                 + layer + " for " + layers, e);
+                }
+            }
+            if (i == keep) {
+                store(prefixes[i], base);
+            }
+        }
+
+        synchronized (PrefixCompositeCache.class) {
+            layersSkipped += start;
+            layersApplied += count - start;
+        }
+        layers.colorLayer(base);
+        return base;
+    }
+
+    // Fingerprints for layers [0, i] for each i
+    private static TextureFingerprint[] getPrefixes(TextureLayerGroup layers) {
+        TextureFingerprint[] prefixes = new TextureFingerprint[layers.layers.size()];
+        TextureFingerprint previous = null;
+        for (int i = 0; i < prefixes.length; ++i) {
+            TextureFingerprint.Builder builder = new TextureFingerprint.Builder();
+            if (previous != null) {
+                builder.add(previous);
+            }
+            TextureLayer layer = layers.layers.get(i);
+            if (layer == null) {
+                builder.add(0L);
+            }
+            else {
+                builder.add(layer.getFingerprint());
+            }
+            previous = builder.build();
+            prefixes[i] = previous;
+        }
+        return prefixes;
+    }
+
+    private static synchronized void store(TextureFingerprint prefix, PixelBuffer image) {
+        PixelBuffer previous = images.put(prefix, new PixelBuffer(image));
+        if (previous != null) {
+            bytesUsed -= previous.getSizeBytes();
+        }
+        bytesUsed += image.getSizeBytes();
+        Iterator<PixelBuffer> iterator = images.values().iterator();
+        while (bytesUsed > MAX_BYTES && iterator.hasNext()) {
+            bytesUsed -= iterator.next().getSizeBytes();
+            iterator.remove();
+        }
+    }
+
+    public static synchronized void clear() {
+        images.clear();
+        seen.clear();
+        bytesUsed = 0;
+    }
+
+    public static synchronized String getDebugString() {
+        return String.format("Horse texture prefixes: %d (%.1f MB), %d layers reused, %d applied",
+            images.size(), bytesUsed / (1024. * 1024.), layersSkipped, layersApplied);
+    }
+}
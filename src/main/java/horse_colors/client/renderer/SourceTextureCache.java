@@ -0,0 +1,138 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
+import net.minecraft.util.profiling.ProfilerFiller;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.neoforge.client.event.RegisterClientReloadListenersEvent;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
+// The individual layer images that horse textures are built from. Cleared
+// whenever resources are reloaded, so that resource packs take effect, and
+// optionally filled with all of this mod's horse textures at that time.
+@OnlyIn(Dist.CLIENT)
+public class SourceTextureCache extends SimplePreparableReloadListener<Map<String, PixelBuffer>> {
+    public static final SourceTextureCache INSTANCE = new SourceTextureCache();
+
+    private static final String TEXTURE_DIRECTORY = "textures/entity/horse";
+    // Images past this are still read in when needed, just not kept. This
+    // is far more than the mod's own textures take up.
+    private static final long MAX_BYTES = 64L * 1024L * 1024L;
+
+    private static volatile ConcurrentHashMap<String, PixelBuffer> images = new ConcurrentHashMap<>();
+    private static final AtomicLong bytesUsed = new AtomicLong();
+
+    public static void registerReloadListener(RegisterClientReloadListenersEvent event) {
+        event.registerReloadListener(INSTANCE);
+    }
+
+    // Returns null if the image could not be read
+    public static PixelBuffer get(String name, ResourceManager manager) {
+        ConcurrentHashMap<String, PixelBuffer> cache = images;
+        PixelBuffer image = cache.get(name);
+        if (image != null) {
+            return image;
+        }
+        image = read(new ResourceLocation(name), manager);
+        if (image != null && bytesUsed.get() + image.getSizeBytes() <= MAX_BYTES) {
+            PixelBuffer previous = cache.putIfAbsent(name, image);
+            if (previous != null) {
+                // Another thread read it at the same time
+                return previous;
+            }
+            bytesUsed.addAndGet(image.getSizeBytes());
+        }
+        return image;
+    }
+
+    private static PixelBuffer read(ResourceLocation location, ResourceManager manager) {
+        Resource resource = manager.getResource(location).orElse(null);
+        if (resource == null) {
+            HorseColors.logger.error("Missing horse texture " + location);
+            return null;
+        }
+        return read(location, resource);
+    }
+
+    private static PixelBuffer read(ResourceLocation location, Resource resource) {
+        // Read as RGBA regardless of how the file is stored, so that every
+        // source has the same pixel layout
+        try (InputStream stream = resource.open();
+                NativeImage image = NativeImage.read(NativeImage.Format.RGBA, stream)) {
+            return PixelBuffer.of(image);
+        } catch (IOException ioexception) {
+            HorseColors.logger.error("Couldn't load layered image " + location, (Throwable)ioexception);
+            return null;
+        }
+    }
+
+    // Runs off the main thread
+    @Override
+    protected Map<String, PixelBuffer> prepare(ResourceManager manager, ProfilerFiller profiler) {
+        Map<String, PixelBuffer> loaded = new HashMap<>();
+        if (!HorseConfig.CLIENT.preloadTextures.get()) {
+            return loaded;
+        }
+        for (Map.Entry<ResourceLocation, Resource> entry : listSources(manager).entrySet()) {
+            PixelBuffer image = read(entry.getKey(), entry.getValue());
+            if (image != null) {
+                loaded.put(entry.getKey().toString(), image);
+            }
+        }
+        return loaded;
+    }
+
+    // Every horse texture this mod can build from, in the current packs
+    static Map<ResourceLocation, Resource> listSources(ResourceManager manager) {
+        return manager.listResources(TEXTURE_DIRECTORY,
+            location -> location.getNamespace().equals(HorseColors.MODID) && location.getPath().endsWith(".png"));
+    }
+
+    @Override
+    protected void apply(Map<String, PixelBuffer> loaded, ResourceManager manager, ProfilerFiller profiler) {
+        long bytes = 0;
+        for (PixelBuffer image : loaded.values()) {
+            bytes += image.getSizeBytes();
+        }
+        images = new ConcurrentHashMap<>(loaded);
+        bytesUsed.set(bytes);
+        HorseColors.logger.debug("Loaded " + loaded.size() + " horse textures ("
+            + bytes / 1024 + " KB)");
+        // Anything built from the old images may be out of date
+        DiskTextureCache.onSourcesReloaded(loaded,
+            manager.listPacks().map(PackResources::packId).collect(Collectors.toList()), manager);
+        PrefixCompositeCache.clear();
+        GpuCompositor.clear();
+        InterpolatedTextureLayerGroup.clearKeyframes();
+        CompositeTextureCache.clear();
+    }
+
+    public static int size() {
+        return images.size();
+    }
+
+    // Heap memory taken up by the cached images. The native images they
+    // are read from are freed right away.
+    public static long getBytesUsed() {
+        return bytesUsed.get();
+    }
+
+    public static String getDebugString() {
+        return String.format("Horse texture layers: %d (%.1f MB)", size(), getBytesUsed() / (1024. * 1024.));
+    }
+}
@@ -0,0 +1,152 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.blaze3d.platform.TextureUtil;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.neoforge.client.model.pipeline.VertexConsumerWrapper;
+
+import sekelsta.horse_colors.HorseColors;
+
+// Packs combined horse textures into a few large textures, so that horses
+// sharing a page also share a render type and can be drawn in one batch.
+// Each page is split into equal slots the size of a horse texture; textures
+// of any other size are kept separate.
+@OnlyIn(Dist.CLIENT)
+public class TextureAtlas {
+    public static final int SLOT_SIZE = 128;
+    private static final int PAGE_SIZE = 1024;
+    private static final int SLOTS_PER_ROW = PAGE_SIZE / SLOT_SIZE;
+    private static final int SLOTS_PER_PAGE = SLOTS_PER_ROW * SLOTS_PER_ROW;
+
+    private static final List<Page> pages = new ArrayList<>();
+    private static int pagesCreated = 0;
+
+    public static class Page extends AbstractTexture {
+        public final ResourceLocation location;
+        private final BitSet used = new BitSet(SLOTS_PER_PAGE);
+
+        private Page(ResourceLocation location) {
+            this.location = location;
+            TextureUtil.prepareImage(this.getId(), PAGE_SIZE, PAGE_SIZE);
+        }
+
+        @Override
+        public void load(ResourceManager manager) {
+            // Contents are uploaded a slot at a time
+        }
+    }
+
+    public static class Slot {
+        public final Page page;
+        private final int index;
+        // Region of the page, in texture coordinates
+        private final float u0;
+        private final float v0;
+        private final float scale;
+        private boolean freed = false;
+
+        private Slot(Page page, int index) {
+            this.page = page;
+            this.index = index;
+            this.u0 = (float)(index % SLOTS_PER_ROW * SLOT_SIZE) / PAGE_SIZE;
+            this.v0 = (float)(index / SLOTS_PER_ROW * SLOT_SIZE) / PAGE_SIZE;
+            this.scale = (float)SLOT_SIZE / PAGE_SIZE;
+        }
+
+        // Must be called on the render thread. Closes the image.
+        public void upload(NativeImage image) {
+            RenderSystem.assertOnRenderThreadOrInit();
+            page.bind();
+            image.upload(0, index % SLOTS_PER_ROW * SLOT_SIZE, index / SLOTS_PER_ROW * SLOT_SIZE, true);
+        }
+
+        // Model texture coordinates cover the whole texture, so scale them
+        // down to this slot's part of the page
+        public VertexConsumer remap(VertexConsumer buffer) {
+            return new VertexConsumerWrapper(buffer) {
+                @Override
+                public VertexConsumer uv(float u, float v) {
+                    parent.uv(u0 + u * scale, v0 + v * scale);
+                    return this;
+                }
+            };
+        }
+
+        public void free() {
+            if (!freed) {
+                freed = true;
+                TextureAtlas.free(this);
+            }
+        }
+    }
+
+    // Returns null if the image doesn't fit in a slot
+    public static Slot allocate(int width, int height) {
+        RenderSystem.assertOnRenderThreadOrInit();
+        if (width != SLOT_SIZE || height != SLOT_SIZE) {
+            return null;
+        }
+        // Fill the fullest page first, so that the emptier ones have a
+        // chance to empty out completely and be freed
+        Page best = null;
+        int bestUsed = -1;
+        for (Page page : pages) {
+            int used = page.used.cardinality();
+            if (used < SLOTS_PER_PAGE && used > bestUsed) {
+                best = page;
+                bestUsed = used;
+            }
+        }
+        if (best != null) {
+            int index = best.used.nextClearBit(0);
+            best.used.set(index);
+            return new Slot(best, index);
+        }
+        ResourceLocation location = new ResourceLocation(HorseColors.MODID, "atlas/page_" + pagesCreated++);
+        Page page = new Page(location);
+        Minecraft.getInstance().getTextureManager().register(location, page);
+        pages.add(page);
+        page.used.set(0);
+        return new Slot(page, 0);
+    }
+
+    private static void free(Slot slot) {
+        Page page = slot.page;
+        page.used.clear(slot.index);
+        // Give the memory back once nothing is using the page
+        if (page.used.isEmpty()) {
+            pages.remove(page);
+            TextureManager textureManager = Minecraft.getInstance().getTextureManager();
+            if (textureManager.byPath.get(page.location) == page) {
+                textureManager.byPath.remove(page.location);
+            }
+            page.releaseId();
+        }
+    }
+
+    // Video memory held by pages, however many of their slots are in use
+    public static long getAllocatedBytes() {
+        return 4L * PAGE_SIZE * PAGE_SIZE * pages.size();
+    }
+
+    public static String getDebugString() {
+        int slots = 0;
+        for (Page page : pages) {
+            slots += page.used.cardinality();
+        }
+        return String.format("Horse texture atlas: %d pages, %d/%d slots used",
+            pages.size(), slots, pages.size() * SLOTS_PER_PAGE);
+    }
+}
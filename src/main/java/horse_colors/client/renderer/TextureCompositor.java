@@ -0,0 +1,106 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+
+// Combines texture layers on background threads, so that a herd coming into
+// view doesn't stall the render thread. Only the upload to the GPU has to
+// happen on the render thread.
+@OnlyIn(Dist.CLIENT)
+public class TextureCompositor {
+    // Priority for textures that are needed right now. Anything else is
+    // prioritized by its squared distance from the camera.
+    public static final double URGENT = -1;
+
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    // Breaks ties between tasks with the same priority, oldest first
+    private static final AtomicLong taskCount = new AtomicLong();
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS,
+        0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Horse texture compositor #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            // Stay out of the way of the render and server threads
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+    static class Task implements Runnable, Comparable<Task> {
+        final TextureLayerGroup layers;
+        final TextureFingerprint fingerprint;
+        final int scale;
+        final ResourceManager manager;
+        // Only changed while the task is out of the queue, see setPriority
+        double priority;
+        final long order;
+        final CompletableFuture<NativeImage> result = new CompletableFuture<>();
+
+        Task(TextureLayerGroup layers, TextureFingerprint fingerprint, int scale, ResourceManager manager, double priority) {
+            this.layers = layers;
+            this.fingerprint = fingerprint;
+            this.scale = scale;
+            this.manager = manager;
+            this.priority = priority;
+            this.order = taskCount.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            try {
+                PixelBuffer pixels = DiskTextureCache.read(fingerprint);
+                if (pixels == null) {
+                    pixels = layers.composite(manager, scale);
+                    if (pixels != null) {
+                        DiskTextureCache.write(fingerprint, pixels);
+                    }
+                }
+                result.complete(pixels == null ? null : pixels.toNativeImage());
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        public CompletableFuture<NativeImage> getResult() {
+            return result;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int c = Double.compare(priority, other.priority);
+            return c != 0 ? c : Long.compare(order, other.order);
+        }
+    }
+
+    // The fingerprint identifies the result, so it should take the scale
+    // into account
+    static Task composite(TextureLayerGroup layers, TextureFingerprint fingerprint,
+            int scale, ResourceManager manager, double priority) {
+        Task task = new Task(layers, fingerprint, scale, manager, priority);
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    // Move a task that is still waiting to its new place in the queue. Does
+    // nothing if a thread has already started on it.
+    static void setPriority(Task task, double priority) {
+        if (EXECUTOR.getQueue().remove(task)) {
+            task.priority = priority;
+            EXECUTOR.execute(task);
+        }
+    }
+
+    // Number of textures waiting for a free thread
+    public static int getQueueLength() {
+        return EXECUTOR.getQueue().size();
+    }
+}
@@ -0,0 +1,92 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.Locale;
+
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+
+// A 128 bit hash of everything that affects how a texture layer looks, used
+// to identify combined textures without comparing whole layer trees
+@OnlyIn(Dist.CLIENT)
+public final class TextureFingerprint {
+    public final long high;
+    public final long low;
+
+    public TextureFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof TextureFingerprint)) {
+            return false;
+        }
+        TextureFingerprint other = (TextureFingerprint)o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(low ^ (low >>> 32));
+    }
+
+    // Identifies the same layers combined at a lower resolution
+    public TextureFingerprint scaled(int divisor) {
+        if (divisor == 1) {
+            return this;
+        }
+        return new Builder().add(this).add(divisor).build();
+    }
+
+    // Suitable for use in a resource location
+    public String toHexString() {
+        return String.format(Locale.ENGLISH, "%016x%016x", high, low);
+    }
+
+    @Override
+    public String toString() {
+        return toHexString();
+    }
+
+    // Two independent 64 bit hashes, each mixed after every value
+    public static class Builder {
+        private long high = 0x6A09E667F3BCC908L;
+        private long low = 0xBB67AE8584CAA73BL;
+
+        public Builder add(long value) {
+            high = mix(high ^ value) * 0x9E3779B97F4A7C15L;
+            low = mix(low + value) ^ Long.rotateLeft(low, 29);
+            return this;
+        }
+
+        public Builder add(String s) {
+            if (s == null) {
+                return add(-1L);
+            }
+            add(s.length());
+            for (int i = 0; i < s.length(); ++i) {
+                add(s.charAt(i));
+            }
+            return this;
+        }
+
+        public Builder add(TextureFingerprint fingerprint) {
+            return add(fingerprint.high).add(fingerprint.low);
+        }
+
+        public TextureFingerprint build() {
+            return new TextureFingerprint(mix(high), mix(low ^ high));
+        }
+
+        // Finalizer from SplitMix64
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
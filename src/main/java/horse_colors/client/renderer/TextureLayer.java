@@ -1,22 +1,16 @@
 package sekelsta.horse_colors.client.renderer;
 
-import java.io.IOException;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Objects;
 
 import com.mojang.blaze3d.platform.NativeImage;
 import net.minecraft.client.renderer.texture.*;
-import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
-import net.minecraft.resources.ResourceLocation;
 import sekelsta.horse_colors.HorseColors;
 import sekelsta.horse_colors.util.Color;
 
 
 public class TextureLayer {
-    private static final HashMap<String, NativeImage> loadedImages = new HashMap<>();
-
     public String name;
     public Type type;
     public Color color;
@@ -51,7 +45,7 @@ public class TextureLayer {
         TextureLayer other = (TextureLayer)o;
         return (name == other.name || (name != null && name.equals(other.name)))
             && type == other.type
-            && color == other.color || (color != null && color.equals(other.color));
+            && (color == other.color || (color != null && color.equals(other.color)));
     }
 
     @Override
@@ -59,325 +53,87 @@ public class TextureLayer {
         return Objects.hash(name, type, color);
     }
 
-    private NativeImage getSource(ResourceManager manager) {
+    public TextureFingerprint getFingerprint() {
+        return addToFingerprint(new TextureFingerprint.Builder()).build();
+    }
+
+    // Add everything that affects how this layer looks
+    protected TextureFingerprint.Builder addToFingerprint(TextureFingerprint.Builder builder) {
+        builder.add(name).add(type.ordinal());
+        if (color == null) {
+            return builder.add(-1L);
+        }
+        return builder.add(Float.floatToIntBits(color.r))
+            .add(Float.floatToIntBits(color.g))
+            .add(Float.floatToIntBits(color.b))
+            .add(Float.floatToIntBits(color.a));
+    }
+
+    private PixelBuffer getSource(ResourceManager manager) {
         if (this.name == null) {
             HorseColors.logger.error("Attempting to load unspecified texture (name is null): " + this.toString());
             return null;
         }
-        if (!loadedImages.containsKey(name)) {
-            try {
-                ResourceLocation resourceLocation = new ResourceLocation(this.name);
-                Resource resource = manager.getResource(resourceLocation).orElseThrow();
-                loadedImages.put(name, NativeImage.read(resource.open()));
-            } catch (IOException ioexception) {
-                HorseColors.logger.error("Couldn't load layered image", (Throwable)ioexception);
-                HorseColors.logger.error("Skipping layer " + this.toString());
-                return null;
-            }
+        PixelBuffer source = SourceTextureCache.get(name, manager);
+        if (source == null) {
+            HorseColors.logger.error("Skipping layer " + this.toString());
         }
-        return loadedImages.get(name);
+        return source;
     }
 
     public NativeImage getImage(ResourceManager manager) {
-        NativeImage source = getSource(manager);
-        NativeImage base = new NativeImage(source.format(), source.getWidth(), source.getHeight(), false);
-        base.copyFrom(source);
+        PixelBuffer pixels = getPixels(manager);
+        return pixels == null ? null : pixels.toNativeImage();
+    }
+
+    // A colored copy of this layer
+    protected PixelBuffer getPixels(ResourceManager manager) {
+        PixelBuffer source = getSource(manager);
+        if (source == null) {
+            return null;
+        }
+        PixelBuffer base = new PixelBuffer(source);
         colorLayer(base);
         return base;
     }
 
-    public void apply(NativeImage base, ResourceManager manager) {
-        NativeImage image = getSource(manager);
+    public void apply(PixelBuffer base, ResourceManager manager) {
+        PixelBuffer image = getSource(manager);
+        if (image == null) {
+            // getSource will already have logged an error
+            return;
+        }
         combineLayers(base, image);
     }
 
-    protected void combineLayers(NativeImage base, NativeImage image) {
+    protected void combineLayers(PixelBuffer base, PixelBuffer image) {
         switch(this.type) {
             case NORMAL:
-                blendLayer(base, image);
+                BlendKernels.blend(base, image, color, false);
                 break;
             case NO_ALPHA:
-                blendLayerKeepAlpha(base, image);
+                BlendKernels.blend(base, image, color, true);
                 break;
             case MASK:
-                maskLayer(base, image);
+                BlendKernels.mask(base, image);
                 break;
             case SHADE:
-                shadeLayer(base, image);
+                BlendKernels.shade(base, image, color, false);
                 break;
             case HIGHLIGHT:
-                highlightLayer(base, image);
+                BlendKernels.shade(base, image, color, true);
                 break;
             case POWER:
-                powerLayer(base, image);
+                BlendKernels.exponent(base, image, color, false);
                 break;
             case ROOT:
-                rootLayer(base, image);
+                BlendKernels.exponent(base, image, color, true);
                 break;
         }
     }
 
-    private static float getRedAsFloat(NativeImage image, int x, int y) {
-        byte b = image.getRedOrLuminance(x, y);
-        int i = (int)b & 255;
-        return i / 255f;
-    }
-
-    private static float getGreenAsFloat(NativeImage image, int x, int y) {
-        byte b = image.getGreenOrLuminance(x, y);
-        int i = (int)b & 255;
-        return i / 255f;
-    }
-
-    private static float getBlueAsFloat(NativeImage image, int x, int y) {
-        byte b = image.getBlueOrLuminance(x, y);
-        int i = (int)b & 255;
-        return i / 255f;
-    }
-
-    private static float getAlphaAsFloat(NativeImage image, int x, int y) {
-        byte b = image.getLuminanceOrAlpha(x, y);
-        int i = (int)b & 255;
-        return i / 255f;
-    }
-
-    private float getMultipliedRedAsFloat(NativeImage image, int x, int y) {
-        return getRedAsFloat(image, x, y) * color.r;
-    }
-
-    private float getMultipliedGreenAsFloat(NativeImage image, int x, int y) {
-        return getGreenAsFloat(image, x, y) * color.g;
-    }
-
-    private float getMultipliedBlueAsFloat(NativeImage image, int x, int y) {
-        return getBlueAsFloat(image, x, y) * color.b;
-    }
-
-    private float getMultipliedAlphaAsFloat(NativeImage image, int x, int y) {
-        return getAlphaAsFloat(image, x, y) * color.a;
-    }
-
-    private void setRGBA(NativeImage image, int x, int y, float r, float g, float b, float a) {
-        int ir = clamp((int)(r * 255));
-        int ig = clamp((int)(g * 255));
-        int ib = clamp((int)(b * 255));
-        int ia = clamp((int)(a * 255));
-
-        int redOffset = image.format().luminanceOrRedOffset();
-        int greenOffset = image.format().luminanceOrGreenOffset();
-        int blueOffset = image.format().luminanceOrBlueOffset();
-        int alphaOffset = image.format().luminanceOrAlphaOffset();
-
-        int color = (ir << redOffset) | (ig << greenOffset) | (ib << blueOffset) | (ia << alphaOffset);
-
-        image.setPixelRGBA(x, y, color);
-    }
-
-    public void blendLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                float r = imgR * imgA + baseR * (1 - imgA);
-                float g = imgG * imgA + baseG * (1 - imgA);
-                float b = imgB * imgA + baseB * (1 - imgA);
-                float a = baseA + (imgA * (1 - baseA));
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    public void blendLayerKeepAlpha(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                float r = imgR * imgA + baseR * (1 - imgA);
-                float g = imgG * imgA + baseG * (1 - imgA);
-                float b = imgB * imgA + baseB * (1 - imgA);
-                float a = baseA;
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    public void shadeLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                float value = (baseR + baseG + baseB) / 3f;
-                float a = imgA * (0.5f + 0.5f * (1 - value) * (1 - value));
-
-                float r = imgR * a + baseR * (1 - a);
-                float g = imgG * a + baseG * (1 - a);
-                float b = imgB * a + baseB * (1 - a);
-                a = a * a + baseA * (1 - a);
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    public void highlightLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                float value = (baseR + baseG + baseB) / 3f;
-                float a = imgA * (0.5f + 0.5f * value * value);
-
-                float r = imgR * a + baseR * (1 - a);
-                float g = imgG * a + baseG * (1 - a);
-                float b = imgB * a + baseB * (1 - a);
-                a = a * a + baseA * (1 - a);
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    public void maskLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                // Don't multiply here because that would do the wrong thing
-                float imgA = getAlphaAsFloat(image, x, y);
-
-                setRGBA(base, base_x, base_y, baseR, baseG, baseB, baseA * imgA);
-            }
-        }
-    }
-
-    // Raise RGB values to an exponent >= 1
-    public void powerLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                // For each RGB value, raise color to the 1 / imgV
-                // No dividing by 0
-                float expR = (float)Math.pow(baseR, 1 / Math.max(0.002f, imgR));
-                float expG = (float)Math.pow(baseG, 1 / Math.max(0.002f, imgG));
-                float expB = (float)Math.pow(baseB, 1 / Math.max(0.002f, imgB));
-                float a = imgA;
-
-                float r = expR * a + baseR * (1 - a);
-                float g = expG * a + baseG * (1 - a);
-                float b = expB * a + baseB * (1 - a);
-                a = a * a + baseA * (1 - a);
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    // Raise RGB values to an exponent <= 1
-    public void rootLayer(NativeImage base, NativeImage image) {
-        for(int base_y = 0; base_y < base.getHeight(); ++base_y) {
-            for(int base_x = 0; base_x < base.getWidth(); ++base_x) {
-                int x = base_x * image.getWidth() / base.getWidth();
-                int y = base_y * image.getHeight() / base.getHeight();
-                float baseR = getRedAsFloat(base, base_x, base_y);
-                float baseG = getGreenAsFloat(base, base_x, base_y);
-                float baseB = getBlueAsFloat(base, base_x, base_y);
-                float baseA = getAlphaAsFloat(base, base_x, base_y);
-
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                // For each RGB value, raise color to the imgV
-                float expR = (float)Math.pow(baseR, imgR);
-                float expG = (float)Math.pow(baseG, imgG);
-                float expB = (float)Math.pow(baseB, imgB);
-                float a = imgA;
-
-                float r = expR * a + baseR * (1 - a);
-                float g = expG * a + baseG * (1 - a);
-                float b = expB * a + baseB * (1 - a);
-                a = a * a + baseA * (1 - a);
-
-                setRGBA(base, base_x, base_y, r, g, b, a);
-            }
-        }
-    }
-
-    protected void colorLayer(NativeImage image) {
-        for(int y = 0; y < image.getHeight(); ++y) {
-            for(int x = 0; x < image.getWidth(); ++x) {
-                float imgR = getMultipliedRedAsFloat(image, x, y);
-                float imgG = getMultipliedGreenAsFloat(image, x, y);
-                float imgB = getMultipliedBlueAsFloat(image, x, y);
-                float imgA = getMultipliedAlphaAsFloat(image, x, y);
-
-                setRGBA(image, x, y, imgR, imgG, imgB, imgA);
-            }
-        }
-    }
-
-    // Restrict to range [0, 255]
-    private int clamp(int x) {
-        return Math.max(0, Math.min(x, 255));
+    protected void colorLayer(PixelBuffer image) {
+        BlendKernels.tint(image, color);
     }
 
     static String getAbv(String s) {
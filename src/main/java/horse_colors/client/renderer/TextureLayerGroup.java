@@ -6,7 +6,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 
-import com.mojang.blaze3d.platform.NativeImage;
 import net.minecraft.client.renderer.texture.*;
 import net.minecraft.server.packs.resources.ResourceManager;
 
@@ -14,7 +13,9 @@ import sekelsta.horse_colors.util.Color;
 
 public class TextureLayerGroup extends TextureLayer {
     public List<TextureLayer> layers;
-    
+    private TextureFingerprint fingerprint = null;
+    private TextureFingerprint lowDetailFingerprint = null;
+
     public TextureLayerGroup() {
         this.layers = new ArrayList<>();
     }
@@ -45,15 +46,59 @@ public class TextureLayerGroup extends TextureLayer {
 
     public void add(TextureLayer layer) {
         layers.add(layer);
+        fingerprint = null;
+        lowDetailFingerprint = null;
+    }
+
+    // Worked out the first time it is needed, which should be after all the
+    // layers have been added. The layers are not expected to change after
+    // that.
+    @Override
+    public TextureFingerprint getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = super.getFingerprint();
+        }
+        return fingerprint;
+    }
+
+    public TextureFingerprint getLowDetailFingerprint() {
+        if (lowDetailFingerprint == null) {
+            lowDetailFingerprint = getFingerprint().scaled(CompositeTextureCache.LOW_DETAIL_SCALE);
+        }
+        return lowDetailFingerprint;
+    }
+
+    @Override
+    protected TextureFingerprint.Builder addToFingerprint(TextureFingerprint.Builder builder) {
+        super.addToFingerprint(builder);
+        builder.add(layers.size());
+        for (TextureLayer layer : layers) {
+            if (layer == null) {
+                builder.add(0L);
+            }
+            else {
+                builder.add(layer.getFingerprint());
+            }
+        }
+        return builder;
+    }
+
+    protected PixelBuffer getUncoloredPixels(ResourceManager manager) {
+        return getUncoloredPixels(manager, 1);
     }
 
-    protected NativeImage getUncoloredImage(ResourceManager manager) {
+    // Layers are sampled by nearest neighbour when their size doesn't match
+    // the base, so a smaller base makes a smaller image for less work
+    protected PixelBuffer getUncoloredPixels(ResourceManager manager, int scale) {
         TextureLayer baselayer = layers.get(0);
-        NativeImage baseimage = baselayer.getImage(manager);
+        PixelBuffer baseimage = baselayer.getPixels(manager);
         if (baseimage == null) {
-            // baselayer.getLayer() will already have logged an error
+            // baselayer.getPixels() will already have logged an error
             return null;
         }
+        if (scale != 1) {
+            baseimage = baseimage.downscale(scale);
+        }
 
         for (int i = 1; i < layers.size(); ++i) {
             TextureLayer layer = layers.get(i);
@@ -72,30 +117,46 @@ public class TextureLayerGroup extends TextureLayer {
         return baseimage;
     }
 
+    // The finished image, with each side divided by scale, reusing whatever
+    // work can be shared with other textures
+    public PixelBuffer composite(ResourceManager manager, int scale) {
+        // Low detail textures are cheap enough not to bother with shared
+        // prefixes
+        return scale == 1 ? PrefixCompositeCache.composite(this, manager) : getPixels(manager, scale);
+    }
+
     @Override
-    public NativeImage getImage(ResourceManager manager) {
-        NativeImage baseimage = getUncoloredImage(manager);
-        colorLayer(baseimage);
+    protected PixelBuffer getPixels(ResourceManager manager) {
+        return getPixels(manager, 1);
+    }
+
+    // With each side divided by scale
+    protected PixelBuffer getPixels(ResourceManager manager, int scale) {
+        PixelBuffer baseimage = getUncoloredPixels(manager, scale);
+        if (baseimage != null) {
+            colorLayer(baseimage);
+        }
         return baseimage;
     }
 
     @Override
-    public void apply(NativeImage base, ResourceManager manager) {
-        try (NativeImage image = getUncoloredImage(manager)) {
+    public void apply(PixelBuffer base, ResourceManager manager) {
+        PixelBuffer image = getUncoloredPixels(manager);
+        if (image != null) {
             combineLayers(base, image);
         }
     }
 
     // Return a string unique for all the layers in the group
     public String getUniqueName() {
-        String s = "";
+        StringBuilder s = new StringBuilder();
         for (int i = 0; i < layers.size(); ++i) {
             if (this.layers.get(i) != null) {
-                s += this.layers.get(i).getUniqueName();
+                s.append(this.layers.get(i).getUniqueName());
             }
         }
         // Specify English to avoid Turkish locale bug
-        return s.toLowerCase(Locale.ENGLISH);
+        return s.toString().toLowerCase(Locale.ENGLISH);
     }
 
     public List<String> getDebugStrings() {
@@ -0,0 +1,81 @@
+package sekelsta.horse_colors.client.renderer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.phys.Vec3;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.api.distmarker.OnlyIn;
+import net.neoforged.neoforge.event.TickEvent;
+
+import sekelsta.horse_colors.HorseConfig;
+import sekelsta.horse_colors.entity.AbstractHorseGenetic;
+
+// Horses are sent to the client from further away than they can be seen, so
+// there is time to build their textures in the background before they come
+// into view. This looks for horses without a texture yet and queues the
+// closest ones a few at a time, so a whole herd arriving at once is spread
+// out over several ticks.
+@OnlyIn(Dist.CLIENT)
+public class TexturePrefetcher {
+    private static final int TICKS_BETWEEN_SCANS = 5;
+    private static final int MAX_PER_SCAN = 8;
+
+    private static int ticks = 0;
+
+    private static class Candidate {
+        final TextureLayerGroup layers;
+        final double distanceSqr;
+
+        Candidate(TextureLayerGroup layers, double distanceSqr) {
+            this.layers = layers;
+            this.distanceSqr = distanceSqr;
+        }
+    }
+
+    public static void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        if (++ticks < TICKS_BETWEEN_SCANS) {
+            return;
+        }
+        ticks = 0;
+        Minecraft minecraft = Minecraft.getInstance();
+        if (minecraft.level == null || !HorseConfig.CLIENT.prefetchTextures.get()) {
+            return;
+        }
+        Vec3 camera = minecraft.gameRenderer.getMainCamera().getPosition();
+        List<Candidate> candidates = new ArrayList<>();
+        for (Entity entity : minecraft.level.entitiesForRendering()) {
+            if (!(entity instanceof AbstractHorseGenetic)) {
+                continue;
+            }
+            AbstractHorseGenetic horse = (AbstractHorseGenetic)entity;
+            // Genes may not have arrived from the server yet
+            if (horse.getGeneData().isEmpty()) {
+                continue;
+            }
+            TextureLayerGroup layers = horse.getGenome().getTexturePaths();
+            double distanceSqr = entity.distanceToSqr(camera);
+            if (!CompositeTextureCache.contains(layers, CompositeTextureCache.isLowDetail(distanceSqr))) {
+                candidates.add(new Candidate(layers, distanceSqr));
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(candidate -> candidate.distanceSqr));
+        int queued = 0;
+        for (Candidate candidate : candidates) {
+            if (queued >= MAX_PER_SCAN) {
+                break;
+            }
+            // Several horses may share the same texture
+            boolean lowDetail = CompositeTextureCache.isLowDetail(candidate.distanceSqr);
+            if (CompositeTextureCache.prefetch(candidate.layers, lowDetail, candidate.distanceSqr)) {
+                queued++;
+            }
+        }
+    }
+}
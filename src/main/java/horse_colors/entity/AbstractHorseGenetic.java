@@ -77,6 +77,12 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
     protected FleeGoal fleeGoal;
     public OustGoal oustGoal;
     protected long lastOustTime;
+    // Only the id is saved, and the herd is rebuilt from it after loading
+    protected Herd herd = null;
+    protected UUID herdId = null;
+    // Starts at a random offset, so that horses spawned together don't all
+    // look for mates on the same tick
+    protected int nextAutobreedCheck = 800 + random.nextInt(800);
 
 
     protected static final UUID ARMOR_MODIFIER_UUID = UUID.fromString("556E1665-8B10-40C8-8F9D-CF9B1667F295");
@@ -198,6 +204,9 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
         if (fatherUUID != null) {
             compound.putUUID("FatherUUID", this.fatherUUID);
         }
+        if (herdId != null) {
+            compound.putUUID("HerdUUID", this.herdId);
+        }
     }
 
     @Override
@@ -210,6 +219,9 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
         if (compound.hasUUID("FatherUUID")) {
             this.fatherUUID = compound.getUUID("FatherUUID");
         }
+        if (compound.hasUUID("HerdUUID")) {
+            this.herdId = compound.getUUID("HerdUUID");
+        }
         // Read the main part of the data
         readGeneticData(compound);
         // Ensure the true age matches the age
@@ -368,20 +380,27 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
 
     protected void readExtraGenes(CompoundTag compound) {
         boolean changed = false;
-        for (Enum gene : this.getGenome().listGenes()) {
-            if (compound.contains(gene.toString())) {
-                int alleles[] = compound.getIntArray(gene.toString());
-                List<Integer> allowedAlleles = getGenome().getAllowedAlleles(gene, getDefaultBreed());
-                for (int i = 0; i < 2; ++i) {
-                    if (allowedAlleles.contains(alleles[i])) {
-                        getGenome().setAllele(gene, i, alleles[i]);
+        EquineGenome genome = this.getGenome();
+        genome.beginEdit();
+        try {
+            for (Enum gene : genome.listGenes()) {
+                if (compound.contains(gene.toString())) {
+                    int alleles[] = compound.getIntArray(gene.toString());
+                    List<Integer> allowedAlleles = genome.getAllowedAlleles(gene, getDefaultBreed());
+                    for (int i = 0; i < 2; ++i) {
+                        if (allowedAlleles.contains(alleles[i])) {
+                            genome.setAllele(gene, i, alleles[i]);
+                        }
                     }
+                    changed = true;
                 }
-                changed = true;
+            }
+            if (changed) {
+                genome.finalizeGenes();
             }
         }
-        if (changed) {
-            getGenome().finalizeGenes();
+        finally {
+            genome.commitEdit();
         }
     }
 
@@ -470,6 +489,21 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
         return fatherUUID;
     }
 
+    // Null if not in a herd, or if the herd hasn't been rebuilt since loading
+    public Herd getHerd() {
+        return herd;
+    }
+
+    public UUID getHerdId() {
+        return herdId;
+    }
+
+    // Use HerdRegistry.join or leaveHerd rather than calling this directly
+    public void setHerd(Herd herd) {
+        this.herd = herd;
+        this.herdId = herd == null ? null : herd.id;
+    }
+
     public void setGeneData(String genes) {
         this.entityData.set(GENES, genes);
     }
@@ -489,17 +523,24 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
     @Override
     public void onSyncedDataUpdated(EntityDataAccessor<?> key) {
         if (GENES.equals(key)) {
+            this.getGenome().onGeneDataChanged();
             this.getGenome().resetTexture();
             this.useGeneticAttributes();
             this.refreshDimensions();
         }
-        else if (HORSE_RANDOM.equals(key)
-            || GENDER.equals(key)
+        else if (HORSE_RANDOM.equals(key)) {
+            // Some markings depend on the seed
+            this.getGenome().clearPhenotypeCache();
+            this.getGenome().resetTexture();
+            this.refreshDimensions();
+        }
+        else if (GENDER.equals(key)
             || MOTHER_SIZE.equals(key)) {
+            this.getGenome().clearPhenotypeCache();
             this.refreshDimensions();
         }
         else if (DISPLAY_AGE.equals(key)) {
-            this.getGenome().resetTexture();
+            this.getGenome().onAgeChanged();
         }
 
         super.onSyncedDataUpdated(key);
@@ -861,21 +902,9 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
         if (HorseConfig.GENETICS.useGeneticStats.get())
         {
             EquineGenome genes = this.getGenome();
-            float maxHealth = this.getGenome().getHealth();
-            float athletics = genes.sumGenes(Gene.class, "athletics", 0, 4) / 2f
-                                + genes.sumGenes(Gene.class, "athletics", 4, 8) / 2f;
-            // Vanilla horse speed ranges from 0.1125 to 0.3375, as does ours
-            float speedStat = genes.sumGenes(Gene.class, "speed", 0, 4)
-                                + genes.sumGenes(Gene.class, "speed", 4, 8)
-                                + genes.sumGenes(Gene.class, "speed", 8, 12)
-                                + athletics;
-            double movementSpeed = 0.1125D + speedStat * (0.225D / 32.0D);
-            // Vanilla horse jump strength ranges from 0.4 to 1.0, as does ours
-            float jumpStat = genes.sumGenes(Gene.class, "jump", 0, 4)
-                                + genes.sumGenes(Gene.class, "jump", 4, 8)
-                                + genes.sumGenes(Gene.class, "jump", 8, 12)
-                                + athletics;
-            double jumpStrength = 0.4D + jumpStat * (0.6D / 32.0D);
+            float maxHealth = genes.getHealth();
+            double movementSpeed = genes.getMovementSpeed();
+            double jumpStrength = genes.getJumpStrength();
 
             this.getAttribute(Attributes.MAX_HEALTH).setBaseValue(maxHealth);
             this.getAttribute(Attributes.MOVEMENT_SPEED).setBaseValue(movementSpeed);
@@ -1063,18 +1092,25 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
             AbstractHorseGenetic foal = (AbstractHorseGenetic)child;
             if (ageable instanceof AbstractHorseGenetic) {
                 AbstractHorseGenetic other = (AbstractHorseGenetic)ageable;
-                foal.getGenome().inheritGenes(this.getGenome(), other.getGenome());
-                // No child is born for genotypes strongly suspected to be embryonic lethal, or re-roll for those
-                // that we're not sure about
-                while (foal.getGenome().isEmbryonicLethal() || foal.getGenome().isMaybeEmbryonicLethal())
-                {
-                    if (foal.getGenome().isEmbryonicLethal()) {
-                        return null;
-                    }
-                    else if (foal.getGenome().isMaybeEmbryonicLethal()) {
-                        foal.getGenome().inheritGenes(this.getGenome(), other.getGenome());
+                // Publish only the final genotype, not each re-roll
+                foal.getGenome().beginEdit();
+                try {
+                    foal.getGenome().inheritGenes(this.getGenome(), other.getGenome());
+                    // No child is born for genotypes strongly suspected to be embryonic lethal, or re-roll for those
+                    // that we're not sure about
+                    while (foal.getGenome().isEmbryonicLethal() || foal.getGenome().isMaybeEmbryonicLethal())
+                    {
+                        if (foal.getGenome().isEmbryonicLethal()) {
+                            return null;
+                        }
+                        else if (foal.getGenome().isMaybeEmbryonicLethal()) {
+                            foal.getGenome().inheritGenes(this.getGenome(), other.getGenome());
+                        }
                     }
                 }
+                finally {
+                    foal.getGenome().commitEdit();
+                }
             }
             foal.setMotherSize(this.getGenome().getAdultScale());
             foal.setMale(this.random.nextBoolean());
@@ -1136,6 +1172,9 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
     public void tick()
     {
         super.tick();
+        if (!this.level().isClientSide) {
+            HerdRegistry.get(this.level()).update(this);
+        }
         // Keep track of age
         if (!this.level().isClientSide) {
             // For children, align with growing age in case they have been fed
@@ -1176,23 +1215,13 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
 
          else if (HorseConfig.BREEDING.autobreeding.get() 
                  && !this.level().isClientSide
-                 && tickCount % 800 == 0 
-                 && (!isMale() || !HorseConfig.isGenderEnabled())
-                 && canAutobreed() 
-                 && canFallInLove() 
-                 && random.nextFloat() < 0.05f) {
-            List<AbstractHorseGenetic> equines = level().getEntitiesOfClass(AbstractHorseGenetic.class, getBoundingBox().inflate(16, 12, 16));
-            if (equines.size() < 16) {
-                setInLove(null);
-                AbstractHorseGenetic stallion = equines
-                    .stream()
-                    .filter((h) -> isOppositeGender(h) && h.canAutobreed() && !isDirectRelative(h) && h.canFallInLove())
-                    .sorted((h1, h2) -> Double.compare(h1.distanceToSqr(this), h2.distanceToSqr(this)))
-                    .findFirst()
-                    .orElse(null);
-                if (stallion != null) {
-                    stallion.setInLove(null);
-                }
+                 && tickCount >= nextAutobreedCheck) {
+            nextAutobreedCheck = tickCount + 800;
+            if ((!isMale() || !HorseConfig.isGenderEnabled())
+                    && canAutobreed()
+                    && canFallInLove()
+                    && random.nextFloat() < 0.05f) {
+                AutobreedMatchmaker.get(this.level()).request(this);
             }
         }
 
@@ -1210,6 +1239,17 @@ public abstract class AbstractHorseGenetic extends AbstractChestedHorse implemen
         if (isArmor(stack)) stack.onHorseArmorTick(this.level(), this);
     }
 
+    @Override
+    public void onRemovedFromWorld() {
+        // Entities are removed after the level's unload event when it shuts
+        // down, and that shouldn't bring the registry back
+        HerdRegistry herds = this.level().isClientSide ? null : HerdRegistry.getExisting(this.level());
+        if (herds != null) {
+            herds.remove(this);
+        }
+        super.onRemovedFromWorld();
+    }
+
     public void aiStep() {
         if (this.unbornChildren != null && this.unbornChildren.size() > 0
                 && this.getPregnancyStart() < 0) {
@@ -1,6 +1,8 @@
 package sekelsta.horse_colors.entity;
 
 // TODO: Remove unused imports
+import java.io.IOException;
+
 import net.minecraft.core.registries.Registries;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.item.CreativeModeTabs;
@@ -18,6 +20,8 @@ import net.minecraft.resources.ResourceLocation;
 import net.neoforged.api.distmarker.Dist;
 import net.neoforged.api.distmarker.OnlyIn;
 import net.neoforged.neoforge.client.event.EntityRenderersEvent;
+import net.neoforged.neoforge.client.event.RegisterClientReloadListenersEvent;
+import net.neoforged.neoforge.client.event.RegisterShadersEvent;
 import net.neoforged.neoforge.common.DeferredSpawnEggItem;
 import net.neoforged.neoforge.event.BuildCreativeModeTabContentsEvent;
 import net.neoforged.neoforge.event.entity.EntityAttributeCreationEvent;
@@ -30,9 +34,11 @@ import net.neoforged.neoforge.registries.DeferredHolder;
 import net.neoforged.neoforge.registries.DeferredItem;
 
 import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.client.renderer.GpuCompositor;
 import sekelsta.horse_colors.client.renderer.HorseArmorLayer;
 import sekelsta.horse_colors.client.renderer.HorseGeneticModel;
 import sekelsta.horse_colors.client.renderer.HorseGeneticRenderer;
+import sekelsta.horse_colors.client.renderer.SourceTextureCache;
 import sekelsta.horse_colors.item.ModItems;
 
 @Mod.EventBusSubscriber(modid = HorseColors.MODID, bus = Bus.MOD)
@@ -93,6 +99,18 @@ public class ModEntities {
         event.registerLayerDefinition(HorseArmorLayer.HORSE_ARMOR_LAYER, HorseGeneticModel::createArmorLayer);
     }
 
+    @OnlyIn(Dist.CLIENT)
+    @SubscribeEvent
+    public static void registerReloadListeners(RegisterClientReloadListenersEvent event) {
+        SourceTextureCache.registerReloadListener(event);
+    }
+
+    @OnlyIn(Dist.CLIENT)
+    @SubscribeEvent
+    public static void registerShaders(RegisterShadersEvent event) throws IOException {
+        GpuCompositor.registerShaders(event);
+    }
+
     // Called from ModItems
     public static void addToCreativeTab(BuildCreativeModeTabContentsEvent event) {
         if (event.getTabKey().equals(CreativeModeTabs.SPAWN_EGGS)) {
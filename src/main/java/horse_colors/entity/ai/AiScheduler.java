@@ -0,0 +1,136 @@
+package sekelsta.horse_colors.entity.ai;
+
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.minecraft.world.level.Level;
+import net.neoforged.fml.LogicalSide;
+import net.neoforged.neoforge.event.TickEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.HorseConfig;
+
+// Runs the expensive searches that equine AI needs, such as looking for a
+// herd or a mate, a limited number per tick. Horses that spawn together
+// would otherwise all search on the same ticks forever. Instead, searches
+// past the budget wait in line for a later tick, which also leaves each
+// horse searching at a different time from then on. Only used on the
+// server thread.
+public class AiScheduler {
+    private static final Map<Level, AiScheduler> schedulers = new WeakHashMap<>();
+    // How often to log a summary if searches have been waiting
+    private static final int TICKS_BETWEEN_REPORTS = 1200;
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    // The tick each job in the queue was submitted on
+    private final LongArrayFIFOQueue submitTicks = new LongArrayFIFOQueue();
+    private long tick = 0;
+
+    private long jobsRun = 0;
+    // Jobs that had to wait at least one extra tick
+    private long jobsDeferred = 0;
+    private long longestWait = 0;
+    private int largestBacklog = 0;
+
+    public static AiScheduler get(Level level) {
+        AiScheduler scheduler = schedulers.get(level);
+        if (scheduler == null) {
+            scheduler = new AiScheduler();
+            schedulers.put(level, scheduler);
+        }
+        return scheduler;
+    }
+
+    // Run the job on a later tick, once there is room in the budget. The
+    // job should check that its entity is still around before doing anything.
+    public void submit(Runnable job) {
+        queue.add(job);
+        submitTicks.enqueue(tick);
+        largestBacklog = Math.max(largestBacklog, queue.size());
+    }
+
+    public static void onLevelTick(TickEvent.LevelTickEvent event) {
+        // Run before entities tick, so results are ready for them
+        if (event.phase != TickEvent.Phase.START || event.side != LogicalSide.SERVER) {
+            return;
+        }
+        AiScheduler scheduler = schedulers.get(event.level);
+        if (scheduler != null) {
+            scheduler.tick();
+        }
+    }
+
+    // Queued jobs hold on to their horses, which hold on to the level, so
+    // the level could never be collected if they were left behind
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        AiScheduler scheduler = schedulers.remove(event.getLevel());
+        if (scheduler != null) {
+            scheduler.queue.clear();
+            scheduler.submitTicks.clear();
+        }
+    }
+
+    private void tick() {
+        tick++;
+        int maxJobs = HorseConfig.COMMON.aiSearchesPerTick.get();
+        long maxNanos = HorseConfig.COMMON.aiMicrosecondsPerTick.get() * 1000L;
+        long start = System.nanoTime();
+        int count = 0;
+        while (!queue.isEmpty() && count < maxJobs) {
+            if (count > 0 && maxNanos > 0 && System.nanoTime() - start >= maxNanos) {
+                break;
+            }
+            Runnable job = queue.poll();
+            long wait = tick - 1 - submitTicks.dequeueLong();
+            if (wait > 0) {
+                jobsDeferred++;
+                longestWait = Math.max(longestWait, wait);
+            }
+            try {
+                job.run();
+            }
+            catch (RuntimeException e) {
+                HorseColors.logger.error("Error in scheduled equine AI search", e);
+            }
+            count++;
+        }
+        jobsRun += count;
+
+        if (tick % TICKS_BETWEEN_REPORTS == 0) {
+            if (jobsDeferred > 0) {
+                HorseColors.logger.debug(getDebugString());
+            }
+            longestWait = 0;
+            largestBacklog = queue.size();
+        }
+    }
+
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    public long getJobsRun() {
+        return jobsRun;
+    }
+
+    public long getJobsDeferred() {
+        return jobsDeferred;
+    }
+
+    // Since the last report
+    public long getLongestWait() {
+        return longestWait;
+    }
+
+    // Since the last report
+    public int getLargestBacklog() {
+        return largestBacklog;
+    }
+
+    public String getDebugString() {
+        return String.format("Equine AI searches: %d run, %d deferred, %d waiting, largest backlog %d, longest wait %d ticks",
+            jobsRun, jobsDeferred, getBacklog(), largestBacklog, longestWait);
+    }
+}
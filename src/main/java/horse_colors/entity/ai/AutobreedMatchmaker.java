@@ -0,0 +1,164 @@
+package sekelsta.horse_colors.entity.ai;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.neoforged.fml.LogicalSide;
+import net.neoforged.neoforge.event.TickEvent;
+import net.neoforged.neoforge.event.level.LevelEvent;
+
+import sekelsta.horse_colors.HorseColors;
+import sekelsta.horse_colors.entity.AbstractHorseGenetic;
+import sekelsta.horse_colors.util.BestOf;
+
+// Pairs up mares looking for a mate with nearby stallions, for autobreeding.
+// Instead of each mare searching the area around her on her own, mares put
+// in a request and all requests are handled together every so often, using
+// the herd registry to find who is nearby. Only used on the server thread.
+public class AutobreedMatchmaker {
+    private static final Map<Level, AutobreedMatchmaker> matchmakers = new WeakHashMap<>();
+    private static final int TICKS_BETWEEN_BATCHES = 20;
+    private static final int TICKS_PER_MINUTE = 1200;
+    // Don't breed if there are already this many equines around
+    private static final int MAX_CROWD = 16;
+
+    private final Set<AbstractHorseGenetic> waiting = new LinkedHashSet<>();
+    private final HerdRegistry herds;
+    private long tick = 0;
+
+    // Reused between batches
+    private final List<AbstractHorseGenetic> nearby = new ArrayList<>();
+    private final BestOf<AbstractHorseGenetic> nearest = new BestOf<>();
+
+    private long pairs = 0;
+    private long rejectedAsRelative = 0;
+    private long rejectedAsCrowded = 0;
+    private long unmatched = 0;
+    private int pairsThisMinute = 0;
+    private int pairsLastMinute = 0;
+
+    private AutobreedMatchmaker(HerdRegistry herds) {
+        this.herds = herds;
+    }
+
+    public static AutobreedMatchmaker get(Level level) {
+        AutobreedMatchmaker matchmaker = matchmakers.get(level);
+        if (matchmaker == null) {
+            matchmaker = new AutobreedMatchmaker(HerdRegistry.get(level));
+            matchmakers.put(level, matchmaker);
+        }
+        return matchmaker;
+    }
+
+    // Look for a mate for this mare in the next batch
+    public void request(AbstractHorseGenetic mare) {
+        waiting.add(mare);
+    }
+
+    public static void onLevelTick(TickEvent.LevelTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || event.side != LogicalSide.SERVER) {
+            return;
+        }
+        AutobreedMatchmaker matchmaker = matchmakers.get(event.level);
+        if (matchmaker != null) {
+            matchmaker.tick();
+        }
+    }
+
+    // Waiting mares hold on to the level, so the level could never be
+    // collected if they were left behind
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        AutobreedMatchmaker matchmaker = matchmakers.remove(event.getLevel());
+        if (matchmaker != null) {
+            matchmaker.waiting.clear();
+        }
+    }
+
+    private void tick() {
+        tick++;
+        if (tick % TICKS_BETWEEN_BATCHES == 0 && !waiting.isEmpty()) {
+            for (AbstractHorseGenetic mare : waiting) {
+                match(mare);
+            }
+            waiting.clear();
+        }
+        if (tick % TICKS_PER_MINUTE == 0) {
+            pairsLastMinute = pairsThisMinute;
+            pairsThisMinute = 0;
+            if (pairsLastMinute > 0) {
+                HorseColors.logger.debug(getDebugString());
+            }
+        }
+    }
+
+    private void match(AbstractHorseGenetic mare) {
+        // Things may have changed since the request was made, including an
+        // earlier mare in this batch taking the only stallion
+        if (mare.isRemoved() || !mare.canFallInLove()) {
+            return;
+        }
+        AABB box = mare.getBoundingBox().inflate(16, 12, 16);
+        herds.getNearby(mare, box, nearby);
+        // Count the mare herself, as a search of the area would
+        if (nearby.size() + 1 >= MAX_CROWD) {
+            rejectedAsCrowded++;
+            nearby.clear();
+            return;
+        }
+        mare.setInLove(null);
+        for (AbstractHorseGenetic h : nearby) {
+            if (mare.isOppositeGender(h) && h.canAutobreed() && h.canFallInLove()) {
+                if (mare.isDirectRelative(h)) {
+                    rejectedAsRelative++;
+                    continue;
+                }
+                nearest.offer(h, h.distanceToSqr(mare));
+            }
+        }
+        // Don't keep the horses alive until the next batch
+        nearby.clear();
+        AbstractHorseGenetic stallion = nearest.take();
+        if (stallion == null) {
+            unmatched++;
+            return;
+        }
+        stallion.setInLove(null);
+        pairs++;
+        pairsThisMinute++;
+    }
+
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    public long getPairs() {
+        return pairs;
+    }
+
+    // Pairs made during the last full minute of game time
+    public int getPairsPerMinute() {
+        return pairsLastMinute;
+    }
+
+    public long getRejectedAsRelative() {
+        return rejectedAsRelative;
+    }
+
+    public long getRejectedAsCrowded() {
+        return rejectedAsCrowded;
+    }
+
+    public long getUnmatched() {
+        return unmatched;
+    }
+
+    public String getDebugString() {
+        return String.format("Autobreeding: %d pairs (%d last minute), %d waiting, %d unmatched, %d rejected as relatives, %d too crowded",
+            pairs, pairsLastMinute, getWaiting(), unmatched, rejectedAsRelative, rejectedAsCrowded);
+    }
+}
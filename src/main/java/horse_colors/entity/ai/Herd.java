@@ -0,0 +1,139 @@
+package sekelsta.horse_colors.entity.ai;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import sekelsta.horse_colors.entity.AbstractHorseGenetic;
+
+// A group of equines of the same kind that stay together. Keeps track of
+// who leads it, so that followers don't each need to search for someone to
+// follow. Members are added and removed through HerdRegistry, and each
+// member remembers its herd's id so the herd comes back after a reload.
+public class Herd {
+    public final UUID id;
+    // By UUID, so that foals can find their mother directly
+    private final Map<UUID, AbstractHorseGenetic> members = new LinkedHashMap<>();
+    // Foals in the herd, by their mother's UUID
+    private final Map<UUID, List<AbstractHorseGenetic>> foals = new HashMap<>();
+    // The member with the highest max health
+    private AbstractHorseGenetic leader = null;
+    // The fertile stallion with the highest max health, if any
+    private AbstractHorseGenetic leadStallion = null;
+
+    protected Herd(UUID id) {
+        this.id = id;
+    }
+
+    protected void add(AbstractHorseGenetic horse) {
+        members.put(horse.getUUID(), horse);
+        if (horse.getMotherUUID() != null) {
+            foals.computeIfAbsent(horse.getMotherUUID(), uuid -> new ArrayList<>(1)).add(horse);
+        }
+        consider(horse);
+    }
+
+    protected void remove(AbstractHorseGenetic horse) {
+        if (members.remove(horse.getUUID()) == null) {
+            return;
+        }
+        if (horse.getMotherUUID() != null) {
+            List<AbstractHorseGenetic> siblings = foals.get(horse.getMotherUUID());
+            if (siblings != null) {
+                siblings.remove(horse);
+                if (siblings.isEmpty()) {
+                    foals.remove(horse.getMotherUUID());
+                }
+            }
+        }
+        if (horse == leader || horse == leadStallion) {
+            electLeaders();
+        }
+    }
+
+    // Check whether a member should take over as leader. Members call this
+    // when they look for a target, so that leadership keeps up with foals
+    // growing up and stallions becoming fertile.
+    public void consider(AbstractHorseGenetic horse) {
+        if (leader == null || horse.getMaxHealth() > leader.getMaxHealth()) {
+            leader = horse;
+        }
+        if (isFertileStallion(horse)) {
+            if (leadStallion == null || horse.getMaxHealth() > leadStallion.getMaxHealth()) {
+                leadStallion = horse;
+            }
+        }
+        else if (horse == leadStallion) {
+            electLeaders();
+        }
+    }
+
+    private void electLeaders() {
+        leader = null;
+        leadStallion = null;
+        for (AbstractHorseGenetic horse : members.values()) {
+            if (leader == null || horse.getMaxHealth() > leader.getMaxHealth()) {
+                leader = horse;
+            }
+            if (isFertileStallion(horse)
+                    && (leadStallion == null || horse.getMaxHealth() > leadStallion.getMaxHealth())) {
+                leadStallion = horse;
+            }
+        }
+    }
+
+    private static boolean isFertileStallion(AbstractHorseGenetic horse) {
+        return !horse.isBaby() && horse.isMale() && horse.isFertile();
+    }
+
+    public AbstractHorseGenetic getLeader() {
+        return leader;
+    }
+
+    public AbstractHorseGenetic getLeadStallion() {
+        return leadStallion;
+    }
+
+    public AbstractHorseGenetic getMember(UUID uuid) {
+        return uuid == null ? null : members.get(uuid);
+    }
+
+    // The given horse's mother, if she is in the herd
+    public AbstractHorseGenetic getMother(AbstractHorseGenetic foal) {
+        return getMember(foal.getMotherUUID());
+    }
+
+    // Everything in the herd whose mother is the given horse. May include
+    // offspring that have grown up.
+    public List<AbstractHorseGenetic> getFoals(AbstractHorseGenetic mother) {
+        List<AbstractHorseGenetic> list = foals.get(mother.getUUID());
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    public boolean contains(AbstractHorseGenetic horse) {
+        return members.get(horse.getUUID()) == horse;
+    }
+
+    public Collection<AbstractHorseGenetic> getMembers() {
+        return Collections.unmodifiableCollection(members.values());
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Herd " + id + " (" + size() + " members, leader " + leader
+            + ", lead stallion " + leadStallion + ")";
+    }
+}
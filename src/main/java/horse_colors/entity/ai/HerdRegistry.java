@@ -0,0 +1,257 @@
+package sekelsta.horse_colors.entity.ai;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+import net.minecraft.core.SectionPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.neoforged.neoforge.event.level.LevelEvent;
+
+import sekelsta.horse_colors.entity.AbstractHorseGenetic;
+import sekelsta.horse_colors.util.BestOf;
+
+// Keeps track of which genetic equines are in each chunk section of a level,
+// so that herd members can be found by looking at a few nearby sections
+// instead of searching every entity in a box and sorting them, and of the
+// herds they belong to. Only used on the server thread.
+public class HerdRegistry {
+    private static final Map<Level, HerdRegistry> registries = new WeakHashMap<>();
+    private static final long NONE = Long.MIN_VALUE;
+    // How far an equine's bounding box can reach outside the block it's in.
+    // The base size is 1.2 by 1.6, and genetic size can make that half again
+    // as large, which is 2.4 blocks tall.
+    private static final double MAX_REACH = 3;
+
+    private final Long2ObjectOpenHashMap<List<AbstractHorseGenetic>> sections = new Long2ObjectOpenHashMap<>();
+    // The section each horse was last seen in
+    private final Reference2LongOpenHashMap<AbstractHorseGenetic> positions = new Reference2LongOpenHashMap<>();
+    private final Map<UUID, Herd> herds = new HashMap<>();
+    // Reused between queries, since the server thread is the only user
+    private final List<AbstractHorseGenetic> scratch = new ArrayList<>();
+    private final BestOf<AbstractHorseGenetic> best = new BestOf<>();
+
+    private HerdRegistry() {
+        positions.defaultReturnValue(NONE);
+    }
+
+    public static HerdRegistry get(Level level) {
+        HerdRegistry registry = registries.get(level);
+        if (registry == null) {
+            registry = new HerdRegistry();
+            registries.put(level, registry);
+        }
+        return registry;
+    }
+
+    // Doesn't create one, for use while the level may be shutting down
+    public static HerdRegistry getExisting(Level level) {
+        return registries.get(level);
+    }
+
+    // Horses in the registry hold on to the level, so the level could never
+    // be collected if they were left behind
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        HerdRegistry registry = registries.remove(event.getLevel());
+        if (registry != null) {
+            registry.sections.clear();
+            registry.positions.clear();
+            registry.herds.clear();
+            registry.scratch.clear();
+        }
+    }
+
+    // Called every tick, but only does anything when the horse moves to a
+    // different section
+    public void update(AbstractHorseGenetic horse) {
+        long section = SectionPos.asLong(horse.blockPosition());
+        long previous = positions.put(horse, section);
+        if (previous == section) {
+            return;
+        }
+        if (previous != NONE) {
+            removeFromSection(horse, previous);
+        }
+        List<AbstractHorseGenetic> list = sections.get(section);
+        if (list == null) {
+            list = new ArrayList<>();
+            sections.put(section, list);
+        }
+        list.add(horse);
+    }
+
+    // Called when the horse dies or is unloaded. It keeps its herd id, so
+    // that it can find its herd again if it comes back.
+    public void remove(AbstractHorseGenetic horse) {
+        long previous = positions.removeLong(horse);
+        if (previous != NONE) {
+            removeFromSection(horse, previous);
+        }
+        Herd herd = horse.getHerd();
+        if (herd != null) {
+            removeFromHerd(horse, herd);
+        }
+    }
+
+    private void removeFromSection(AbstractHorseGenetic horse, long section) {
+        List<AbstractHorseGenetic> list = sections.get(section);
+        if (list != null) {
+            list.remove(horse);
+            if (list.isEmpty()) {
+                sections.remove(section);
+            }
+        }
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    public Herd getHerd(UUID id) {
+        return herds.get(id);
+    }
+
+    public Collection<Herd> getHerds() {
+        return Collections.unmodifiableCollection(herds.values());
+    }
+
+    // Start a new herd with just this horse in it
+    public Herd createHerd(AbstractHorseGenetic founder) {
+        return rejoin(founder, UUID.randomUUID());
+    }
+
+    // Put the horse back into the herd it belonged to when it was saved,
+    // recreating the herd if no other member has been loaded yet
+    public Herd rejoin(AbstractHorseGenetic horse, UUID id) {
+        Herd herd = herds.get(id);
+        if (herd == null) {
+            herd = new Herd(id);
+            herds.put(id, herd);
+        }
+        join(horse, herd);
+        return herd;
+    }
+
+    public void join(AbstractHorseGenetic horse, Herd herd) {
+        if (horse.getHerd() == herd && herd.contains(horse)) {
+            return;
+        }
+        leaveHerd(horse);
+        herd.add(horse);
+        horse.setHerd(herd);
+    }
+
+    public void leaveHerd(AbstractHorseGenetic horse) {
+        Herd herd = horse.getHerd();
+        if (herd != null) {
+            removeFromHerd(horse, herd);
+            horse.setHerd(null);
+        }
+    }
+
+    // Move every member of one herd into another
+    public void merge(Herd from, Herd into) {
+        for (AbstractHorseGenetic horse : new ArrayList<>(from.getMembers())) {
+            join(horse, into);
+        }
+    }
+
+    private void removeFromHerd(AbstractHorseGenetic horse, Herd herd) {
+        herd.remove(horse);
+        if (herd.isEmpty()) {
+            herds.remove(herd.id);
+        }
+    }
+
+    // Adds every living horse other than center whose bounding box touches
+    // the given box
+    public void getNearby(AbstractHorseGenetic center, AABB box, List<AbstractHorseGenetic> out) {
+        // Horses are filed by the block they stand in, but their bounding
+        // box can reach into the next section, so look a little further out
+        int minX = SectionPos.blockToSectionCoord(Mth.floor(box.minX - MAX_REACH));
+        int minY = SectionPos.blockToSectionCoord(Mth.floor(box.minY - MAX_REACH));
+        int minZ = SectionPos.blockToSectionCoord(Mth.floor(box.minZ - MAX_REACH));
+        int maxX = SectionPos.blockToSectionCoord(Mth.floor(box.maxX + MAX_REACH));
+        int maxY = SectionPos.blockToSectionCoord(Mth.floor(box.maxY + MAX_REACH));
+        int maxZ = SectionPos.blockToSectionCoord(Mth.floor(box.maxZ + MAX_REACH));
+        for (int x = minX; x <= maxX; ++x) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                for (int y = minY; y <= maxY; ++y) {
+                    List<AbstractHorseGenetic> list = sections.get(SectionPos.asLong(x, y, z));
+                    if (list == null) {
+                        continue;
+                    }
+                    for (AbstractHorseGenetic h : list) {
+                        if (h != center && h.isAlive() && h.getBoundingBox().intersects(box)) {
+                            out.add(h);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // The horse closest to center that matches the filter, or null
+    public AbstractHorseGenetic nearest(AbstractHorseGenetic center, AABB box, Predicate<AbstractHorseGenetic> filter) {
+        for (AbstractHorseGenetic h : nearby(center, box)) {
+            if (filter.test(h)) {
+                best.offer(h, h.distanceToSqr(center));
+            }
+        }
+        scratch.clear();
+        return best.take();
+    }
+
+    // The horse furthest from center that matches the filter, or null
+    public AbstractHorseGenetic farthest(AbstractHorseGenetic center, AABB box, Predicate<AbstractHorseGenetic> filter) {
+        for (AbstractHorseGenetic h : nearby(center, box)) {
+            if (filter.test(h)) {
+                best.offer(h, -h.distanceToSqr(center));
+            }
+        }
+        scratch.clear();
+        return best.take();
+    }
+
+    // The horse with the highest max health that matches the filter, or null
+    public AbstractHorseGenetic strongest(AbstractHorseGenetic center, AABB box, Predicate<AbstractHorseGenetic> filter) {
+        for (AbstractHorseGenetic h : nearby(center, box)) {
+            if (filter.test(h)) {
+                best.offer(h, -h.getMaxHealth());
+            }
+        }
+        scratch.clear();
+        return best.take();
+    }
+
+    // The nearby horse with the given UUID, such as a foal's mother
+    public AbstractHorseGenetic find(AbstractHorseGenetic center, AABB box, UUID uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        AbstractHorseGenetic found = null;
+        for (AbstractHorseGenetic h : nearby(center, box)) {
+            if (uuid.equals(h.getUUID())) {
+                found = h;
+                break;
+            }
+        }
+        scratch.clear();
+        return found;
+    }
+
+    // Callers should clear the list when done, so it doesn't keep horses alive
+    private List<AbstractHorseGenetic> nearby(AbstractHorseGenetic center, AABB box) {
+        getNearby(center, box, scratch);
+        return scratch;
+    }
+}
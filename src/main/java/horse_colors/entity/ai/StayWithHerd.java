@@ -1,13 +1,14 @@
 package sekelsta.horse_colors.entity.ai;
 
 import java.util.*;
-import java.util.stream.Stream;
 import net.minecraft.world.entity.ai.goal.Goal;
 import net.minecraft.world.entity.animal.horse.AbstractHorse;
+import net.minecraft.world.phys.AABB;
 
 import sekelsta.horse_colors.HorseColors;
 import sekelsta.horse_colors.HorseConfig;
 import sekelsta.horse_colors.entity.AbstractHorseGenetic;
+import sekelsta.horse_colors.util.BestOf;
 
 public class StayWithHerd extends Goal {
     protected final AbstractHorseGenetic horse;
@@ -20,6 +21,14 @@ public class StayWithHerd extends Goal {
 
     protected int lastSearchTick = 0;
     protected int acceptableDelay = 50;
+    // Members further than this from their leader go their own way
+    protected double herdRange = 48;
+    private final BestOf<AbstractHorse> best = new BestOf<>();
+    // Searches go through the AiScheduler, so they happen a little later
+    private final Runnable searchJob = this::search;
+    protected boolean searchQueued = false;
+    // Whether a search has finished since canUse was last called
+    protected boolean searched = false;
 
     public StayWithHerd(AbstractHorseGenetic horse) {
         this.horse = horse;
@@ -40,7 +49,13 @@ public class StayWithHerd extends Goal {
             return false;
         }
 
-        distanceModifier = 1;
+        // Only a fresh search result can ask to stay closer than normal
+        if (searched) {
+            searched = false;
+        }
+        else {
+            distanceModifier = 1;
+        }
         if (horse.isBaby() && target != null && target.isAlive() && target.getUUID().equals(horse.getMotherUUID())) {
             double distSq = target.distanceToSqr(horse);
             double min = closeEnoughDistance();
@@ -54,16 +69,29 @@ public class StayWithHerd extends Goal {
         }
 
         float age = horse.getFractionGrown();
-        if (horse.tickCount - lastSearchTick > acceptableDelay * age) {
-            lastSearchTick = horse.tickCount + horse.getRandom().nextInt(8);
-            double horizontalSearch = 4 + 16 * age;
-            double verticalSearch = 4 + 8 * age;
-            List<AbstractHorse> equines = horse.level().getEntitiesOfClass(AbstractHorse.class, horse.getBoundingBox().inflate(horizontalSearch, verticalSearch, horizontalSearch));
-            target = getBestTarget(equines.stream().filter((h) -> h != horse).toList());
+        if (!searchQueued && horse.tickCount - lastSearchTick > acceptableDelay * age) {
+            searchQueued = true;
+            AiScheduler.get(horse.level()).submit(searchJob);
         }
         return canContinueToUse();
     }
 
+    protected void search() {
+        searchQueued = false;
+        if (horse.isRemoved()) {
+            return;
+        }
+        lastSearchTick = horse.tickCount + horse.getRandom().nextInt(8);
+        float age = horse.getFractionGrown();
+        double horizontalSearch = 4 + 16 * age;
+        double verticalSearch = 4 + 8 * age;
+        AABB box = horse.getBoundingBox().inflate(horizontalSearch, verticalSearch, horizontalSearch);
+        HerdRegistry herds = HerdRegistry.get(horse.level());
+        distanceModifier = 1;
+        target = getBestTarget(herds, updateHerd(herds, box), box);
+        searched = true;
+    }
+
     @Override
     public boolean canContinueToUse() {
         if (target == null || !target.isAlive()) {
@@ -84,93 +112,123 @@ public class StayWithHerd extends Goal {
         return (distSq < max * max || horse.isDrivingAwayCompetitor()) && distSq > min * min;
     }
 
-    public int bestMother(AbstractHorse h1, AbstractHorse h2) {
-        if (h1.getUUID().equals(horse.getMotherUUID())) {
-            return -1;
-        }
-        else if (h2.getUUID().equals(horse.getMotherUUID())) {
-            return 1;
+    // How suitable another equine is for a foal to follow, before distance
+    // is considered. Its mother comes first, then adults, then its own kind.
+    public int motherRank(AbstractHorse h) {
+        if (h.getUUID().equals(horse.getMotherUUID())) {
+            return 4;
         }
-        boolean h1b = h1.isBaby();
-        boolean h2b = h2.isBaby();
-        if (h1b != h2b) {
-            return Boolean.compare(h2b, h1b);
-        }
-        return nearestIdeallyMatchingClass(h1, h2);
+        return (h.isBaby() ? 0 : 2) + (isSameClass(h) ? 1 : 0);
     }
 
-    public int nearestIdeallyMatchingClass(AbstractHorse h1, AbstractHorse h2) {
-        boolean h1c = h1.getClass().equals(horse.getClass());
-        boolean h2c = h2.getClass().equals(horse.getClass());
-        if (h1c != h2c) {
-            return Boolean.compare(h2c, h1c);
+    // Join, leave, or merge herds depending on who is nearby, and return the
+    // horse's herd afterwards
+    protected Herd updateHerd(HerdRegistry herds, AABB box) {
+        Herd herd = horse.getHerd();
+        if (herd == null && horse.getHerdId() != null) {
+            herd = herds.rejoin(horse, horse.getHerdId());
         }
-        return Double.compare(h1.distanceToSqr(horse), h2.distanceToSqr(horse));
-    }
-
-    public int strongestIdeallyMatchingClass(AbstractHorse h1, AbstractHorse h2) {
-        boolean h1c = h1.getClass().equals(horse.getClass());
-        boolean h2c = h2.getClass().equals(horse.getClass());
-        if (h1c != h2c) {
-            return Boolean.compare(h2c, h1c);
+        // Leave a herd that has moved on without this horse, or one of a
+        // different kind that it was saved in before herds were kept apart
+        if (herd != null && herd.size() > 1) {
+            AbstractHorseGenetic leader = herd.getLeader();
+            if (leader != horse && (!isSameClass(leader) || leader.distanceToSqr(horse) > herdRange * herdRange)) {
+                herds.leaveHerd(horse);
+                herd = null;
+            }
         }
-        return Float.compare(h2.getMaxHealth(), h1.getMaxHealth());
-    }
-
-    public int highestHealth(AbstractHorse h1, AbstractHorse h2) {
-        return Float.compare(h2.getMaxHealth(), h1.getMaxHealth());
+        // A foal belongs in its mother's herd, even if another is closer.
+        // A mule or hinny still follows its mother, but herds with its own kind.
+        if (horse.isBaby() && horse.getMotherUUID() != null) {
+            AbstractHorseGenetic mother = herd == null ? null : herd.getMother(horse);
+            if (mother == null) {
+                mother = herds.find(horse, box, horse.getMotherUUID());
+            }
+            if (mother != null && mother.getHerd() != null && isSameClass(mother)) {
+                herd = mother.getHerd();
+                herds.join(horse, herd);
+                herd.consider(horse);
+                return herd;
+            }
+        }
+        final Herd current = herd;
+        AbstractHorseGenetic other = herds.nearest(horse, box,
+            (h) -> isSameClass(h) && h.getHerd() != null && h.getHerd() != current);
+        if (other != null) {
+            Herd otherHerd = other.getHerd();
+            if (herd == null || herd.size() == 1) {
+                herds.join(horse, otherHerd);
+                herd = otherHerd;
+            }
+            else if (herd.getLeader() == horse && otherHerd.getLeader().getMaxHealth() > horse.getMaxHealth()) {
+                // Two herds have met, and the weaker leader gives way
+                herds.merge(herd, otherHerd);
+                herd = otherHerd;
+            }
+        }
+        if (herd == null) {
+            herd = herds.createHerd(horse);
+        }
+        herd.consider(horse);
+        return herd;
     }
 
-    public AbstractHorse getBestTarget(List<AbstractHorse> equines) {
+    public AbstractHorse getBestTarget(HerdRegistry herds, Herd herd, AABB box) {
         if (horse.isBaby()) {
-            return equines.stream().sorted(this::bestMother).findFirst().orElse(null);
+            AbstractHorse mother = herd.getMother(horse);
+            if (mother != null && mother.isAlive() && mother.getBoundingBox().intersects(box)) {
+                return mother;
+            }
+            mother = herds.find(horse, box, horse.getMotherUUID());
+            if (mother != null) {
+                return mother;
+            }
+            AbstractHorse adult = herds.nearest(horse, box, (h) -> !h.isBaby() && isSameClass(h));
+            if (adult != null) {
+                return adult;
+            }
+            // Nothing ideal, so fall back to considering every equine,
+            // including vanilla ones
+            for (AbstractHorse h : horse.level().getEntitiesOfClass(AbstractHorse.class, box, (h) -> h != horse)) {
+                best.offer(h, motherRank(h), h.distanceToSqr(horse));
+            }
+            return best.take();
         }
 
         if (horse.isDrivingAwayCompetitor() && horse.oustGoal.target == null && horse.oustGoal.stayNear != null) {
             return horse.oustGoal.stayNear;
         }
 
-        List<AbstractHorseGenetic> geneticEquines = new ArrayList<>();
-        List<AbstractHorse> vanillaEquines = new ArrayList<>();
-        for (AbstractHorse h : equines) {
-            if (!HorseConfig.COMMON.herdsFollowRidden.get() && (h.isVehicle() || h.isLeashed())) {
-                continue;
-            }
-            if (h instanceof AbstractHorseGenetic) {
-                geneticEquines.add((AbstractHorseGenetic)h);
-            }
-            else {
-                vanillaEquines.add(h);
-            }
-        }
-
         if (!horse.isMale() || !HorseConfig.BREEDING.enableGenders.get()) {
-            AbstractHorseGenetic foal = null;
-            for (AbstractHorseGenetic h : geneticEquines) {
-                if (h.isBaby() && horse.getUUID().equals(h.getMotherUUID())) {
-                    if (foal == null || foal.distanceToSqr(horse) < h.distanceToSqr(horse)) {
-                        foal = h;
-                    }
+            // Check on whichever foal is furthest away
+            for (AbstractHorseGenetic h : herd.getFoals(horse)) {
+                if (h.isBaby() && isInRange(h, box)) {
+                    best.offer(h, -h.distanceToSqr(horse));
                 }
             }
-            if (foal != null && foal.distanceToSqr(horse) > 12 * 12) {
+            AbstractHorseGenetic foal = (AbstractHorseGenetic)best.get();
+            double distSq = -best.getScore();
+            best.reset();
+            if (foal == null) {
+                // A foal that hasn't found its way into her herd yet
+                foal = herds.farthest(horse, box, (h) -> h.isBaby() && canFollow(h) && horse.getUUID().equals(h.getMotherUUID()));
+                distSq = foal == null ? 0 : foal.distanceToSqr(horse);
+            }
+            boolean farAway = distSq > 12 * 12;
+            if (foal != null && farAway) {
                 distanceModifier = 0.1f * foal.getFractionGrown();
                 return foal;
             }
         }
         else if (horse.isFertile()) {
-            AbstractHorseGenetic mare = geneticEquines.stream()
-                .filter((h) -> isFertileMare(h) && h.getClass().equals(horse.getClass()))
-                .sorted((h1, h2) -> Double.compare(h1.distanceToSqr(horse), h2.distanceToSqr(horse)))
-                .findFirst().orElse(null);
+            AbstractHorseGenetic mare = herds.nearest(horse, box, (h) -> canFollow(h) && isFertileMare(h) && isSameClass(h));
             if (mare != null) {
                 if (!HorseConfig.COMMON.jealousStallions.get()) {
                     return mare;
                 }
-                AbstractHorseGenetic competitor = geneticEquines.stream()
-                    .filter((h) -> isFertileStallion(h) && !h.isLeashed() && !h.isVehicle())
-                    .sorted(this::highestHealth)
-                    .findFirst().orElse(null);
+                // Only challenge if stronger than every stallion around, not
+                // just whichever one leads the mare's herd
+                AbstractHorseGenetic competitor = herds.strongest(horse, box, (h) -> isPossibleRival(h, box));
                 if (competitor == null) {
                     return mare;
                 }
@@ -181,11 +239,29 @@ public class StayWithHerd extends Goal {
             }
         }
 
-        AbstractHorse t = geneticEquines.stream()
-            .sorted(horse.isMale() ? this::nearestIdeallyMatchingClass : this::strongestIdeallyMatchingClass)
-            .findFirst().orElse(null);
+        // Prefer horses of the same kind, then any genetic equine. Mares
+        // follow the strongest, which is the herd's leader.
+        AbstractHorse t;
+        if (horse.isMale()) {
+            t = herds.nearest(horse, box, (h) -> canFollow(h) && isSameClass(h));
+        }
+        else if (herd.size() > 1 && herd.getLeader() != horse && isSameClass(herd.getLeader())
+                && isInRange(herd.getLeader(), box)) {
+            t = herd.getLeader();
+        }
+        else {
+            t = herds.strongest(horse, box, (h) -> canFollow(h) && isSameClass(h));
+        }
         if (t == null) {
-            t = vanillaEquines.stream().sorted(this::highestHealth).findFirst().orElse(null);
+            t = horse.isMale() ? herds.nearest(horse, box, this::canFollow) : herds.strongest(horse, box, this::canFollow);
+        }
+        if (t == null) {
+            // Only look for vanilla equines if there's nothing better
+            for (AbstractHorse h : horse.level().getEntitiesOfClass(AbstractHorse.class, box,
+                    (h) -> !(h instanceof AbstractHorseGenetic) && canFollow(h))) {
+                best.offer(h, -h.getMaxHealth());
+            }
+            t = best.take();
         }
         if (t != null && t.getMaxHealth() <= horse.getMaxHealth()) {
             return null;
@@ -193,6 +269,24 @@ public class StayWithHerd extends Goal {
         return t;
     }
 
+    protected boolean isPossibleRival(AbstractHorseGenetic h, AABB box) {
+        return isFertileStallion(h) && !h.isLeashed() && !h.isVehicle() && isInRange(h, box);
+    }
+
+    // For herd members, which may have wandered off or died since they
+    // were last seen
+    protected boolean isInRange(AbstractHorseGenetic h, AABB box) {
+        return canFollow(h) && h.isAlive() && h.getBoundingBox().intersects(box);
+    }
+
+    protected boolean canFollow(AbstractHorse h) {
+        return HorseConfig.COMMON.herdsFollowRidden.get() || !(h.isVehicle() || h.isLeashed());
+    }
+
+    protected boolean isSameClass(AbstractHorse h) {
+        return h.getClass().equals(horse.getClass());
+    }
+
     public boolean isFertileMare(AbstractHorseGenetic h) {
         return !h.isBaby() && !h.isMale() && h.isFertile();
     }
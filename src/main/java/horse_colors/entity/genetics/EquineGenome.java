@@ -10,6 +10,7 @@ import sekelsta.horse_colors.HorseColors;
 import sekelsta.horse_colors.HorseConfig;
 import sekelsta.horse_colors.breed.Breed;
 import sekelsta.horse_colors.client.renderer.TextureLayer;
+import sekelsta.horse_colors.client.renderer.TextureLayerGroup;
 import sekelsta.horse_colors.entity.*;
 import sekelsta.horse_colors.util.RandomSupplier;
 import sekelsta.horse_colors.util.Util;
@@ -179,16 +180,97 @@ public class EquineGenome extends Genome {
         stripe_width        // 0 wide, 1 narrow dominant
     }
 
+    // Numbered families of genes, looked up once so that stats can be
+    // computed without building gene names and calling Gene.valueOf
+    public enum GeneGroup {
+        speed(12),
+        athletics(8),
+        jump(12),
+        health(12),
+        immune(8),
+        mhc(8),
+        size_subtle(8);
+
+        public final Gene[] genes;
+        public final int[] ordinals;
+
+        GeneGroup(int size) {
+            genes = new Gene[size];
+            ordinals = new int[size];
+            for (int i = 0; i < size; ++i) {
+                genes[i] = Gene.valueOf(name() + i);
+                ordinals[i] = genes[i].ordinal();
+            }
+        }
+    }
+
     public static final double MINIATURE_CUTOFF = 317.5;
 
+    // Bit flags for which derived values are currently cached. These are
+    // queried every tick and frame, so are only recomputed when the genes,
+    // seed, gender, or mother size change.
+    private static final int CACHED_SABINO = 1;
+    private static final int CACHED_WHITE = 2;
+    private static final int CACHED_GENETIC_SCALE = 4;
+    private static final int CACHED_ADULT_SCALE = 8;
+    private static final int CACHED_HEALTH = 16;
+    private static final int CACHED_SPEED = 32;
+    private static final int CACHED_JUMP = 64;
+    private int cached = 0;
+    // Config values the cached values were computed with
+    private boolean cachedSizesEnabled;
+    private boolean cachedHealthEffectsEnabled;
+
+    private int sabinoFactor;
+    private boolean isWhite;
+    private float geneticScale;
+    private float adultScale;
+    private float health;
+    private double movementSpeed;
+    private double jumpStrength;
+
+    // Gray stages the current texture was made for
+    private int textureGrayStages;
+    // Recently made textures, shared between horses and kept when a horse is
+    // unloaded and loaded again. Textures are not changed once made, so
+    // sharing them is safe.
+    private static final int TEXTURE_MEMO_SIZE = 512;
+    private static final Map<String, TextureLayerGroup> textureMemo = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TextureLayerGroup> eldest) {
+            return size() > TEXTURE_MEMO_SIZE;
+        }
+    };
+
     public EquineGenome(Species species, IGeneticEntity entityIn) {
         super(species, entityIn, new RandomSupplier(ImmutableList.of("leg_white",
                 "face_white", "star_choice", "roan_density", "liver_darkness", 
-                "shade", "size", "cat_tracks", "pinto")));
+                "shade", "size", "cat_tracks", "pinto"), RandomSupplier.Mode.LEGACY));
     }
 
     public EquineGenome(Species species) {
         this(species, new FakeGeneticEntity());
+        ((FakeGeneticEntity)this.entity).setGenome(this);
+    }
+
+    public void clearPhenotypeCache() {
+        cached = 0;
+    }
+
+    @Override
+    protected void onAllelesChanged() {
+        clearPhenotypeCache();
+    }
+
+    private boolean isCached(int flag) {
+        boolean sizesEnabled = HorseConfig.COMMON.enableSizes.get();
+        boolean healthEffectsEnabled = HorseConfig.GENETICS.enableHealthEffects.get();
+        if (sizesEnabled != cachedSizesEnabled || healthEffectsEnabled != cachedHealthEffectsEnabled) {
+            cached = 0;
+            cachedSizesEnabled = sizesEnabled;
+            cachedHealthEffectsEnabled = healthEffectsEnabled;
+        }
+        return (cached & flag) != 0;
     }
 
     @Override
@@ -215,7 +297,7 @@ public class EquineGenome extends Genome {
         linkages.add(new Genome.Linkage(Gene.light_belly));
 
         for (int i = 0; i < 7; ++i) {
-            linkages.add(new Genome.Linkage(Gene.valueOf("mhc" + i), 0.2f));
+            linkages.add(new Genome.Linkage(GeneGroup.mhc.genes[i], 0.2f));
         }
         linkages.add(new Genome.Linkage(Gene.mhc7));
 
@@ -336,6 +418,14 @@ public class EquineGenome extends Genome {
     }
 
     public int getSabinoFactor() {
+        if (!isCached(CACHED_SABINO)) {
+            sabinoFactor = calculateSabinoFactor();
+            cached |= CACHED_SABINO;
+        }
+        return sabinoFactor;
+    }
+
+    private int calculateSabinoFactor() {
         int white = 0;
         white += 200 * countAlleles(Gene.KIT, HorseAlleles.KIT_DONKEY_WHITE);
         white += 90 * countAlleles(Gene.KIT, HorseAlleles.KIT_DOMINANT_WHITE);
@@ -379,6 +469,14 @@ public class EquineGenome extends Genome {
     }
 
     public boolean isWhite() {
+        if (!isCached(CACHED_WHITE)) {
+            isWhite = calculateIsWhite();
+            cached |= CACHED_WHITE;
+        }
+        return isWhite;
+    }
+
+    private boolean calculateIsWhite() {
         int sabino = getSabinoFactor();
         return sabino > 85
             || this.isLethalWhite()
@@ -488,17 +586,8 @@ public class EquineGenome extends Genome {
     public float getImmuneHealth() {
         float scale = 7f;
         // Sum of heterozygosity of the 16 immune diversity genes
-        int diffs = 0;
-        for (int i = 0; i < 8; ++i) {
-            Gene immune_gene = Gene.valueOf("immune" + i);
-            if (getAllele(immune_gene, 0) != getAllele(immune_gene, 1)) {
-                diffs++;
-            }
-            Gene mhc_gene = Gene.valueOf("mhc" + i);
-            if (getAllele(mhc_gene, 0) != getAllele(mhc_gene, 1)) {
-                diffs++;
-            }
-        }
+        int diffs = countHeterozygous(GeneGroup.immune.ordinals, 0, 8)
+                    + countHeterozygous(GeneGroup.mhc.ordinals, 0, 8);
         // 16 genes each with 16 alleles, makes total expected heterozygosity 15
         // But horses from older versions had fewer, and allow for some bad 
         // luck, so use 12
@@ -564,11 +653,19 @@ public class EquineGenome extends Genome {
     }
 
     public float getHealth() {
+        if (!isCached(CACHED_HEALTH)) {
+            health = calculateHealth();
+            cached |= CACHED_HEALTH;
+        }
+        return health;
+    }
+
+    private float calculateHealth() {
         // Default horse health ranges from 15 to 30, but ours goes from
         // 15 to 31
-        float healthStat = this.sumGenes(Gene.class, "health", 0, 4)
-                            + this.sumGenes(Gene.class, "health", 4, 8)
-                            + this.sumGenes(Gene.class, "health", 8, 12)
+        float healthStat = this.sumAlleles(GeneGroup.health.ordinals, 0, 4)
+                            + this.sumAlleles(GeneGroup.health.ordinals, 4, 8)
+                            + this.sumAlleles(GeneGroup.health.ordinals, 8, 12)
                             + this.getImmuneHealth();
         float maxHealth = 15.0F + healthStat * 0.5F;
         if (HorseConfig.COMMON.enableSizes.get()) {
@@ -603,6 +700,14 @@ public class EquineGenome extends Genome {
     // This is a multiplier for both width and height, so adjust for that when
     // calculating weight.
     public float getGeneticScale() {
+        if (!isCached(CACHED_GENETIC_SCALE)) {
+            geneticScale = calculateGeneticScale();
+            cached |= CACHED_GENETIC_SCALE;
+        }
+        return geneticScale;
+    }
+
+    private float calculateGeneticScale() {
         float size = 1f;
         // Donkeys are smaller no matter whether sizes are enabled
         if (this.species == Species.DONKEY) {
@@ -681,7 +786,7 @@ public class EquineGenome extends Genome {
                 float scale = 1f + 0.001f * n;
                 int large = 2 * n - 1;
                 int small = 2 * n;
-                Gene gene = Gene.valueOf("size_subtle" + i);
+                Gene gene = GeneGroup.size_subtle.genes[i];
                 size *= getSizeContribution(gene, large, scale);
                 size *= getSizeContribution(gene, small, 1f/scale);
             }
@@ -782,12 +887,47 @@ public class EquineGenome extends Genome {
 
     // Scale for an adult horse after accounting for genetic and environmental factors
     public float getAdultScale() {
-        float size = this.getGeneticScale();
-        // Weighted geometric average with mother's size
-        if (HorseConfig.COMMON.enableSizes.get()) {
-            size = (float)(Math.pow(size, 0.7) * Math.pow(entity.getMotherSize(), 0.3));
+        if (!isCached(CACHED_ADULT_SCALE)) {
+            float size = this.getGeneticScale();
+            // Weighted geometric average with mother's size
+            if (HorseConfig.COMMON.enableSizes.get()) {
+                size = (float)(Math.pow(size, 0.7) * Math.pow(entity.getMotherSize(), 0.3));
+            }
+            adultScale = size;
+            cached |= CACHED_ADULT_SCALE;
         }
-        return size;
+        return adultScale;
+    }
+
+    public double getMovementSpeed() {
+        if (!isCached(CACHED_SPEED)) {
+            // Vanilla horse speed ranges from 0.1125 to 0.3375, as does ours
+            float speedStat = sumAlleles(GeneGroup.speed.ordinals, 0, 4)
+                                + sumAlleles(GeneGroup.speed.ordinals, 4, 8)
+                                + sumAlleles(GeneGroup.speed.ordinals, 8, 12)
+                                + getAthletics();
+            movementSpeed = 0.1125D + speedStat * (0.225D / 32.0D);
+            cached |= CACHED_SPEED;
+        }
+        return movementSpeed;
+    }
+
+    public double getJumpStrength() {
+        if (!isCached(CACHED_JUMP)) {
+            // Vanilla horse jump strength ranges from 0.4 to 1.0, as does ours
+            float jumpStat = sumAlleles(GeneGroup.jump.ordinals, 0, 4)
+                                + sumAlleles(GeneGroup.jump.ordinals, 4, 8)
+                                + sumAlleles(GeneGroup.jump.ordinals, 8, 12)
+                                + getAthletics();
+            jumpStrength = 0.4D + jumpStat * (0.6D / 32.0D);
+            cached |= CACHED_JUMP;
+        }
+        return jumpStrength;
+    }
+
+    private float getAthletics() {
+        return sumAlleles(GeneGroup.athletics.ordinals, 0, 4) / 2f
+                + sumAlleles(GeneGroup.athletics.ordinals, 4, 8) / 2f;
     }
 
     // Returns adult weight in kilograms
@@ -840,47 +980,65 @@ public class EquineGenome extends Genome {
     }
 
     protected void randomizeGenes(Breed breed) {
-        for (Enum gene : listGenes()) {
-            if (!breed.contains(gene)) {
-                HorseColors.logger.debug(gene.toString() + " is not in the given map");
+        beginEdit();
+        try {
+            for (Enum gene : listGenes()) {
+                if (!breed.contains(gene)) {
+                    HorseColors.logger.debug(gene.toString() + " is not in the given map");
+                }
+                // If it doesn't contain the gene, it will return a sensible
+                // default value
+                List<Float> distribution = breed.get(gene);
+                int allele0 = chooseRandomAllele(distribution);
+                int allele1 = chooseRandomAllele(distribution);
+                setAllele(gene, 0, allele0);
+                setAllele(gene, 1, allele1);
             }
-            // If it doesn't contain the gene, it will return a sensible
-            // default value
-            List<Float> distribution = breed.get(gene);
-            int allele0 = chooseRandomAllele(distribution);
-            int allele1 = chooseRandomAllele(distribution);
-            setAllele(gene, 0, allele0);
-            setAllele(gene, 1, allele1);
+        }
+        finally {
+            commitEdit();
         }
     }
 
     /* Make the horse have random genetics. */
     public void randomize(Breed breed)
     {
-        randomizeGenes(breed);
-        finalizeGenes();
+        beginEdit();
+        try {
+            randomizeGenes(breed);
+            finalizeGenes();
+        }
+        finally {
+            commitEdit();
+        }
     }
 
     public void finalizeGenes() {
-        // Replace lethal white overos with heterozygotes
-        if (isHomozygous(Gene.frame, HorseAlleles.FRAME))
-        {
-            setAllele(Gene.frame, 0, 0);
-        }
+        beginEdit();
+        try {
+            // Replace lethal white overos with heterozygotes
+            if (isHomozygous(Gene.frame, HorseAlleles.FRAME))
+            {
+                setAllele(Gene.frame, 0, 0);
+            }
 
-        // Homozygote dominant whites will be replaced with heterozygotes
-        if (isEmbryonicLethal() || isMaybeEmbryonicLethal())
-        {
-            setAllele(Gene.KIT, 0, 0);
-        }
+            // Homozygote dominant whites will be replaced with heterozygotes
+            if (isEmbryonicLethal() || isMaybeEmbryonicLethal())
+            {
+                setAllele(Gene.KIT, 0, 0);
+            }
 
-        // Don't spawn donkey white spotting linked to sorrel
-        for (int i = 0; i < 2; ++i) {
-            if (getAllele(Gene.KIT, i) == HorseAlleles.KIT_DONKEY_SPOTTING 
-                    && getAllele(Gene.extension, i) == HorseAlleles.E_RED) {
-                setAllele(Gene.extension, i, HorseAlleles.E_BLACK);
+            // Don't spawn donkey white spotting linked to sorrel
+            for (int i = 0; i < 2; ++i) {
+                if (getAllele(Gene.KIT, i) == HorseAlleles.KIT_DONKEY_SPOTTING 
+                        && getAllele(Gene.extension, i) == HorseAlleles.E_RED) {
+                    setAllele(Gene.extension, i, HorseAlleles.E_BLACK);
+                }
             }
         }
+        finally {
+            commitEdit();
+        }
     }
 
     public String judgeStatRaw(int val) {
@@ -923,12 +1081,12 @@ public class EquineGenome extends Genome {
         return Util.translate(loc + judgeStatRaw(val));
     }
 
-    public String judgeStat(String name, int min, int max) {
-        return Util.translate("stats." + judgeStatRaw(sumGenes(Gene.class, name, min, max)));
+    public String judgeStat(GeneGroup group, int min, int max) {
+        return Util.translate("stats." + judgeStatRaw(sumAlleles(group.ordinals, min, max)));
     }
 
-    private String judgeStat12(String name, int min, int max) {
-        return Util.translate("stats." + judgeStatRaw12(sumGenes(Gene.class, name, min, max)));
+    private String judgeStat12(GeneGroup group, int min, int max) {
+        return Util.translate("stats." + judgeStatRaw12(sumAlleles(group.ordinals, min, max)));
     }
 
     private void listGenes(ArrayList<String> list, List<Gene> genelist) {
@@ -956,9 +1114,9 @@ public class EquineGenome extends Genome {
         physical.add(Util.translate("book.physical"));
         String health = Util.translate("stats.health");
         health += "\n";
-        health += "  " + Util.translate("stats.health1") + ": " + judgeStat("health", 0, 4) + "\n";
-        health += "  " + Util.translate("stats.health2") + ": " + judgeStat("health", 4, 8) + "\n";
-        health += "  " + Util.translate("stats.health3") + ": " + judgeStat("health", 8, 12) + "\n  ";
+        health += "  " + Util.translate("stats.health1") + ": " + judgeStat(GeneGroup.health, 0, 4) + "\n";
+        health += "  " + Util.translate("stats.health2") + ": " + judgeStat(GeneGroup.health, 4, 8) + "\n";
+        health += "  " + Util.translate("stats.health3") + ": " + judgeStat(GeneGroup.health, 8, 12) + "\n  ";
         health += Util.translate("stats.immune") + ": " + judgeStat((int)getImmuneHealth(), "stats.immune.");
         if (HorseConfig.COMMON.enableSizes.get()) {
             health += "\n" + Util.translate("stats.health_size_note");
@@ -991,34 +1149,34 @@ public class EquineGenome extends Genome {
         String athletics = "";
         if (this.species == Species.DONKEY) {
             athletics += "\n" + Util.translate("stats.athletics1") 
-                        + ": " + judgeStat("athletics", 0, 8);
+                        + ": " + judgeStat(GeneGroup.athletics, 0, 8);
         }
         else {
             athletics += Util.translate("stats.athletics") + "\n";
-            athletics += "  " + Util.translate("stats.athletics1") + ": " + judgeStat("athletics", 0, 4) + "\n";
-            athletics += "  " + Util.translate("stats.athletics2") + ": " + judgeStat("athletics", 4, 8);
+            athletics += "  " + Util.translate("stats.athletics1") + ": " + judgeStat(GeneGroup.athletics, 0, 4) + "\n";
+            athletics += "  " + Util.translate("stats.athletics2") + ": " + judgeStat(GeneGroup.athletics, 4, 8);
         }
         physical.add(athletics);
         String speed = Util.translate("stats.speed");
         if (this.species == Species.DONKEY) {
-            speed += ": " + judgeStat12("speed", 0, 12);
+            speed += ": " + judgeStat12(GeneGroup.speed, 0, 12);
         }
         else {
             speed += "\n";
-            speed += "  " + Util.translate("stats.speed1") + ": " + judgeStat("speed", 0, 4) + "\n";
-            speed += "  " + Util.translate("stats.speed2") + ": " + judgeStat("speed", 4, 8) + "\n";
-            speed += "  " + Util.translate("stats.speed3") + ": " + judgeStat("speed", 8, 12);
+            speed += "  " + Util.translate("stats.speed1") + ": " + judgeStat(GeneGroup.speed, 0, 4) + "\n";
+            speed += "  " + Util.translate("stats.speed2") + ": " + judgeStat(GeneGroup.speed, 4, 8) + "\n";
+            speed += "  " + Util.translate("stats.speed3") + ": " + judgeStat(GeneGroup.speed, 8, 12);
         }
         physical.add(speed);
         String jump = Util.translate("stats.jump");
         if (this.species == Species.DONKEY) {
-            jump += ": " + judgeStat12("jump", 0, 12);
+            jump += ": " + judgeStat12(GeneGroup.jump, 0, 12);
         }
         else {
             jump += "\n";
-            jump += "  " + Util.translate("stats.jump1") + ": " + judgeStat("jump", 0, 4) + "\n";
-            jump += "  " + Util.translate("stats.jump2") + ": " + judgeStat("jump", 4, 8) + "\n";
-            jump += "  " + Util.translate("stats.jump3") + ": " + judgeStat("jump", 8, 12);
+            jump += "  " + Util.translate("stats.jump1") + ": " + judgeStat(GeneGroup.jump, 0, 4) + "\n";
+            jump += "  " + Util.translate("stats.jump2") + ": " + judgeStat(GeneGroup.jump, 4, 8) + "\n";
+            jump += "  " + Util.translate("stats.jump3") + ": " + judgeStat(GeneGroup.jump, 8, 12);
         }
         physical.add(jump);
         physical.add(healthEffects);
@@ -1076,16 +1234,37 @@ public class EquineGenome extends Genome {
     @OnlyIn(Dist.CLIENT)
     public void setTexturePaths()
     {
-        this.textureLayers = HorseColorCalculator.getTexturePaths(this);
+        textureGrayStages = HorseColorCalculator.getGrayStages(this);
+        // Everything the color calculator reads
+        String key = species.ordinal() + ":" + entity.getSeed() + ":" + textureGrayStages
+            + ":" + entity.getGeneData();
+        synchronized (textureMemo) {
+            this.textureLayers = textureMemo.get(key);
+        }
+        if (this.textureLayers == null) {
+            this.textureLayers = HorseColorCalculator.getTexturePaths(this);
+            synchronized (textureMemo) {
+                textureMemo.put(key, this.textureLayers);
+            }
+        }
+    }
+
+    // Age only affects the texture through graying, so most horses can keep
+    // theirs
+    @Override
+    public void onAgeChanged() {
+        if (textureLayers != null && HorseColorCalculator.getGrayStages(this) != textureGrayStages) {
+            resetTexture();
+        }
     }
 
     public String genesToString() {
-        String answer = entity.isMale()? "M" : "F";
-        String genes = entity.getGeneData();
-        for (int i = 0; i < genes.length(); ++i) {
-            answer += String.format("%1$02X", (int)genes.charAt(i));
+        StringBuilder answer = new StringBuilder(entity.isMale()? "M" : "F");
+        int count = getAlleleCount();
+        for (int i = 0; i < count; ++i) {
+            answer.append(String.format("%1$02X", getAlleleAt(i)));
         }
-        return answer;
+        return answer.toString();
     }
 
     public void genesFromString(String s) {
@@ -1103,16 +1282,22 @@ public class EquineGenome extends Genome {
                 genes += (char)Short.parseShort(c, 16);
             }
         }
-        entity.setGeneData(genes);
+        setGeneData(genes);
     }
 
-    private void setGenericGenes(String name, int len, int val) {
-        for (int i = 0; i < len; ++i) {
-            Gene gene = Gene.valueOf(name + i);
-            setAllele(gene, 0, val & 1);
-            val = val >>> 1;
-            setAllele(gene, 1, val & 1);
-            val = val >>> 1;
+    private void setGenericGenes(GeneGroup group, int len, int val) {
+        beginEdit();
+        try {
+            for (int i = 0; i < len; ++i) {
+                Gene gene = group.genes[i];
+                setAllele(gene, 0, val & 1);
+                val = val >>> 1;
+                setAllele(gene, 1, val & 1);
+                val = val >>> 1;
+            }
+        }
+        finally {
+            commitEdit();
         }
     }
 
@@ -22,6 +22,17 @@ public class FakeGeneticEntity implements IGeneticEntity {
         return genome;
     }
 
+    public void setGenome(Genome genome) {
+        this.genome = genome;
+    }
+
+    // Seed, gender, and mother size affect the genome's derived values
+    private void clearPhenotypeCache() {
+        if (genome instanceof EquineGenome) {
+            ((EquineGenome)genome).clearPhenotypeCache();
+        }
+    }
+
     @Override
     public String getGeneData() {
         return geneData;
@@ -40,6 +51,7 @@ public class FakeGeneticEntity implements IGeneticEntity {
     @Override
     public void setSeed(int seed) {
         this.seed = seed;
+        clearPhenotypeCache();
     }
 
     @Override
@@ -55,6 +67,7 @@ public class FakeGeneticEntity implements IGeneticEntity {
     @Override
     public void setMale(boolean gender) {
         this.gender = gender;
+        clearPhenotypeCache();
     }
 
     @Override
@@ -95,6 +108,7 @@ public class FakeGeneticEntity implements IGeneticEntity {
     @Override
     public void setMotherSize(float size) {
         this.motherSize = size;
+        clearPhenotypeCache();
     }
 
     @Override
@@ -29,6 +29,21 @@ public abstract class Genome {
 
     protected final RandomSupplier randSource;
 
+    // Alleles unpacked from the entity's gene data, indexed by
+    // 2 * gene.ordinal() + n, so reading and writing a single allele does not
+    // need to go through the gene data string. Alleles are stored unsigned.
+    private static final int MAX_ALLELE = 0xFF;
+    private byte[] alleles = new byte[0];
+    private int allelesLength = 0;
+    // The gene data string the alleles were last read from or written to
+    private String geneData = null;
+    // True if the entity's gene data changed since the alleles were read
+    private boolean stale = true;
+    // True if alleles have been written but not yet copied to the entity
+    private boolean unsynced = false;
+    // Number of nested beginEdit() calls that have not been committed yet
+    private int editDepth = 0;
+
     public static java.util.Random rand = new java.util.Random();
 
     public Genome(Species species, RandomSupplier rand) {
@@ -45,6 +60,11 @@ public abstract class Genome {
         this.textureLayers = null;
     }
 
+    // Called when the entity's displayed age changes
+    public void onAgeChanged() {
+        resetTexture();
+    }
+
     public abstract List<List<String>> getBookContents();
     public abstract void setTexturePaths();
     public abstract String genesToString();
@@ -63,23 +83,120 @@ public abstract class Genome {
     }
 
     public int getAllele(Enum gene, int n) {
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
         // Each gene has two alleles, so double the index
         int index = 2 * gene.ordinal() + n;
-        if (index >= entity.getGeneData().length()) {
+        if (index >= allelesLength) {
             return 0;
         }
-        return (int)entity.getGeneData().charAt(index);
+        return alleles[index] & 0xFF;
     }
 
     public void setAllele(Enum gene, int n, int v) {
+        if (v < 0 || v > MAX_ALLELE) {
+            throw new IllegalArgumentException("Allele " + v + " for " + gene + " does not fit in a byte");
+        }
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
         int index = 2 * gene.ordinal() + n;
-        StringBuffer buffer = new StringBuffer(entity.getGeneData());
-        // Append null characters until it is long enough
-        if (buffer.length() <= index) {
-            buffer.setLength(index + 1);
+        // Pad with null alleles until it is long enough
+        if (index >= allelesLength) {
+            if (index >= alleles.length) {
+                alleles = Arrays.copyOf(alleles, Math.max(index + 1, 2 * alleles.length));
+            }
+            allelesLength = index + 1;
+        }
+        alleles[index] = (byte)v;
+        unsynced = true;
+        onAllelesChanged();
+        syncGeneData();
+    }
+
+    // Start a batch of allele changes. Until the matching commitEdit(),
+    // changes are only visible through this genome, and the entity sees
+    // them all as a single update to its gene data. Edits may be nested.
+    public void beginEdit() {
+        ++editDepth;
+    }
+
+    public void commitEdit() {
+        if (editDepth <= 0) {
+            throw new IllegalStateException("commitEdit() called without a matching beginEdit()");
+        }
+        --editDepth;
+        syncGeneData();
+    }
+
+    // Write any changed alleles back to the entity as a single update
+    private void syncGeneData() {
+        if (!unsynced || editDepth > 0) {
+            return;
+        }
+        char[] chars = new char[allelesLength];
+        for (int i = 0; i < allelesLength; ++i) {
+            chars[i] = (char)(alleles[i] & 0xFF);
+        }
+        geneData = new String(chars);
+        unsynced = false;
+        entity.setGeneData(geneData);
+    }
+
+    // Number of alleles stored, including any that are only padding
+    protected int getAlleleCount() {
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
+        return allelesLength;
+    }
+
+    // Get an allele by its position in the gene data
+    protected int getAlleleAt(int index) {
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
+        return alleles[index] & 0xFF;
+    }
+
+    // Replace all the gene data at once
+    protected void setGeneData(String genes) {
+        loadAlleles(genes);
+        entity.setGeneData(genes);
+    }
+
+    // Should be called when the entity's gene data is changed by something
+    // other than this genome, for example when it is synced from the server
+    public void onGeneDataChanged() {
+        if (entity.getGeneData() != geneData) {
+            stale = true;
+            onAllelesChanged();
         }
-        buffer.setCharAt(index, (char)v);
-        entity.setGeneData(new String(buffer));
+    }
+
+    // Called whenever any allele may have changed, for subclasses that cache
+    // values derived from the genes
+    protected void onAllelesChanged() {}
+
+    private void loadAlleles(String genes) {
+        if (alleles.length < genes.length()) {
+            alleles = new byte[genes.length()];
+        }
+        else {
+            // Clear anything left over from longer gene data
+            Arrays.fill(alleles, genes.length(), alleles.length, (byte)0);
+        }
+        for (int i = 0; i < genes.length(); ++i) {
+            // Gene data from an old save or another version could in principle
+            // hold anything, so keep it to the largest allele that fits
+            alleles[i] = (byte)Math.min(genes.charAt(i), MAX_ALLELE);
+        }
+        allelesLength = genes.length();
+        geneData = genes;
+        stale = false;
+        unsynced = false;
+        onAllelesChanged();
     }
 
     public List<Integer> getAllowedAlleles(Enum gene, Breed breed) {
@@ -123,26 +240,55 @@ public abstract class Genome {
 
     public void mutate() {
         double p = HorseConfig.GENETICS.mutationChance.get();
-        for (Enum gene : listGenes()) {
-            int a = getAllele(gene, 0);
-            int b = getAllele(gene, 1);
-            mutateAlleleChance(gene, 0, p);
-            mutateAlleleChance(gene, 1, p);
+        beginEdit();
+        try {
+            for (Enum gene : listGenes()) {
+                mutateAlleleChance(gene, 0, p);
+                mutateAlleleChance(gene, 1, p);
+            }
+        }
+        finally {
+            commitEdit();
         }
     }
 
-    // Add together allele values for a set of genes named according to
-    // name + n, where min <= n < max
-    public int sumGenes(Class enumType, String name, int min, int max) {
+    // Add together both allele values for each gene whose ordinal is listed
+    // in ordinals[min] to ordinals[max - 1]
+    public int sumAlleles(int[] ordinals, int min, int max) {
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
         int sum = 0;
         for (int i = min; i < max; ++i) {
-            Enum e = Enum.valueOf(enumType, name + i);
-            sum += getAllele(e, 0);
-            sum += getAllele(e, 1);
+            int index = 2 * ordinals[i];
+            if (index + 1 < allelesLength) {
+                sum += (alleles[index] & 0xFF) + (alleles[index + 1] & 0xFF);
+            }
+            else if (index < allelesLength) {
+                sum += alleles[index] & 0xFF;
+            }
         }
         return sum;
     }
 
+    // Count how many of the genes whose ordinals are listed in ordinals[min]
+    // to ordinals[max - 1] have two different alleles
+    public int countHeterozygous(int[] ordinals, int min, int max) {
+        if (stale) {
+            loadAlleles(entity.getGeneData());
+        }
+        int count = 0;
+        for (int i = min; i < max; ++i) {
+            int index = 2 * ordinals[i];
+            int a = index < allelesLength ? alleles[index] & 0xFF : 0;
+            int b = index + 1 < allelesLength ? alleles[index + 1] & 0xFF : 0;
+            if (a != b) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     public boolean hasAllele(Enum gene, int allele)
     {
         return getAllele(gene, 0) == allele || getAllele(gene, 1) == allele;
@@ -172,19 +318,25 @@ public abstract class Genome {
     public void inheritGenes(Genome parent1, Genome parent2) {
         int rand1 = this.rand.nextInt(2);
         int rand2 = this.rand.nextInt(2);
-        for (Linkage link : this.listLinkages()) {
-            int allele1 = parent1.getAllele(link.gene, rand1);
-            int allele2 = parent2.getAllele(link.gene, rand2);
-            this.setAllele(link.gene, 0, allele1);
-            this.setAllele(link.gene, 1, allele2);
-            if (this.rand.nextFloat() < link.p) {
-                rand1 = 1 - rand1;
-            }
-            if (this.rand.nextFloat() < link.p) {
-                rand2 = 1 - rand2;
+        beginEdit();
+        try {
+            for (Linkage link : this.listLinkages()) {
+                int allele1 = parent1.getAllele(link.gene, rand1);
+                int allele2 = parent2.getAllele(link.gene, rand2);
+                this.setAllele(link.gene, 0, allele1);
+                this.setAllele(link.gene, 1, allele2);
+                if (this.rand.nextFloat() < link.p) {
+                    rand1 = 1 - rand1;
+                }
+                if (this.rand.nextFloat() < link.p) {
+                    rand2 = 1 - rand2;
+                }
             }
+            mutate();
+        }
+        finally {
+            commitEdit();
         }
-        mutate();
     }
 
     public int getRandom(String key) {
@@ -193,11 +345,10 @@ public abstract class Genome {
 
     // Returns the gene data as a base 64 string of printable characters
     public String getBase64() {
-        String genes = entity.getGeneData();
-        StringBuilder builder = new StringBuilder(genes.length());
-        for (int i = 0; i < genes.length(); ++i) {
-            int v = (int)genes.charAt(i);
-            builder.append(Util.toBase64(v));
+        int count = getAlleleCount();
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            builder.append(Util.toBase64(getAlleleAt(i)));
         }
         return builder.toString();
     }
@@ -210,7 +361,7 @@ public abstract class Genome {
             int v = Util.fromBase64(c);
             builder.append((char)v);
         }
-        entity.setGeneData(builder.toString());
+        setGeneData(builder.toString());
     }
 
     // Chromosomal linkage for storing in a list
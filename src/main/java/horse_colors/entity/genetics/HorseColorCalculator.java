@@ -8,6 +8,7 @@ import net.neoforged.api.distmarker.OnlyIn;
 
 import sekelsta.horse_colors.HorseConfig;
 import sekelsta.horse_colors.client.renderer.TextureLayer;
+import sekelsta.horse_colors.client.renderer.InterpolatedTextureLayerGroup;
 import sekelsta.horse_colors.client.renderer.TextureLayerGroup;
 import sekelsta.horse_colors.entity.genetics.EquineGenome.Gene;
 import sekelsta.horse_colors.util.Color;
@@ -17,6 +18,23 @@ public class HorseColorCalculator
 {
     private static final int GRAY_BODY_STAGES = 19;
     private static final int GRAY_MANE_STAGES = 20;
+    private static final int GRAY_CONCENTRATION_STAGES = 50;
+    // Gray concentration stages between fully built textures
+    private static final int GRAY_KEYFRAME_SPACING = 8;
+
+    // Reused while building textures so that rebuilding a whole herd's
+    // layers doesn't allocate. Textures can be built on several threads at
+    // once, so each thread has its own. Each is only used by one step at a
+    // time; the ones for body colors are never held across other calls.
+    private static class Scratch {
+        final Pigment redFur = new Pigment();
+        final Pigment blackFur = new Pigment();
+        final Color liverDark = new Color();
+        final Pigment pigment = new Pigment();
+        final Pigment pigment2 = new Pigment();
+        final Color color = new Color();
+    }
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
     private static final Color EUMELANIN = new Color(0xc0, 0x9a, 0x5f);
     private static final Color PHEOMELANIN = new Color(0xe4, 0xc0, 0x77);
@@ -39,7 +57,7 @@ public class HorseColorCalculator
         }
     }
 
-    private static Pigment redFurPigment(EquineGenome horse) {
+    private static Pigment redFurPigment(EquineGenome horse, Pigment out) {
         // 5, 0.2 looks haflingerish
         // 5, 0.1 looks medium chestnut
         // 6, 0.1 looks liver chestnutish
@@ -47,7 +65,7 @@ public class HorseColorCalculator
         float white = 0.08f;
         // Set albino donkeys to white
         if (horse.isAlbino()) {
-            return new Pigment(Color.WHITE, 0, 0);
+            return out.set(Color.WHITE, 0, 0);
         }
 
         if (horse.isDoubleCream() || horse.isHomozygous(Gene.ivory, HorseAlleles.IVORY)) {
@@ -114,15 +132,16 @@ public class HorseColorCalculator
         else {
             color = PHEOMELANIN;
         }
-        return new Pigment(color, concentration, white);
+        return out.set(color, concentration, white);
     }
 
-    private static Color redBodyColor(EquineGenome horse) {
-        Color color = redFurPigment(horse).toColor();
+    private static Color redBodyColor(EquineGenome horse, Color color) {
+        Scratch scratch = SCRATCH.get();
+        redFurPigment(horse, scratch.redFur).toColor(color);
         // Treat liver like it leaks some eumelanin into the coat
         int liv = horse.countAlleles(Gene.liver, HorseAlleles.LIVER);
         if (liv > 0) {
-            Color dark = blackBodyColor(horse);
+            Color dark = blackBodyColor(horse, scratch.liverDark);
             dark.addWhite(0.02f);
 
             // Adjust liver chestnut strength randomly
@@ -144,21 +163,21 @@ public class HorseColorCalculator
         return color;
     }
 
-    private static TextureLayer getRedBody(EquineGenome horse) {
+    private static TextureLayer getRedBody(EquineGenome horse, int concentrationStage) {
         TextureLayer layer = new TextureLayer();
         layer.name = fixPath("base");
-        layer.color = redBodyColor(horse);
-        setGrayConcentration(horse, layer);
+        redBodyColor(horse, layer.color);
+        setGrayConcentration(horse, layer, concentrationStage);
         return layer;
     }
 
     // The starting color of black pigment, for skin, eyes, and fur.
-    private static Pigment blackBasePigment(EquineGenome horse) {
+    private static Pigment blackBasePigment(EquineGenome horse, Pigment out) {
         float concentration = 15f * getRandomShadeModifier(horse);
         float white = 0f;
         // Set albino donkeys to white
         if (horse.isAlbino()) {
-            return new Pigment(Color.WHITE, 0, 0);
+            return out.set(Color.WHITE, 0, 0);
         }
 
         if (horse.isDoubleCream() || horse.isHomozygous(Gene.ivory, HorseAlleles.IVORY)) {
@@ -199,11 +218,11 @@ public class HorseColorCalculator
         }
  
         white = Math.max(white, 0);
-        return new Pigment(EUMELANIN, concentration, white);
+        return out.set(EUMELANIN, concentration, white);
     }
 
-    private static Pigment blackFurPigment(EquineGenome horse) {
-        Pigment pigment = blackBasePigment(horse);
+    private static Pigment blackFurPigment(EquineGenome horse, Pigment pigment) {
+        blackBasePigment(horse, pigment);
         pigment.white *= 2f;
         pigment.white += 0.02f;
         // Silver dapple has more effect on the fur than on the eyes and skin
@@ -217,11 +236,11 @@ public class HorseColorCalculator
         return pigment;
     }
 
-    private static Color blackBodyColor(EquineGenome horse) {
-        return blackFurPigment(horse).toColor();
+    private static Color blackBodyColor(EquineGenome horse, Color out) {
+        return blackFurPigment(horse, SCRATCH.get().blackFur).toColor(out);
     }
 
-    private static void addBlackBody(EquineGenome horse, TextureLayerGroup layers) {
+    private static void addBlackBody(EquineGenome horse, TextureLayerGroup layers, int concentrationStage) {
         if (horse.isChestnut()) {
             return;
         }
@@ -229,8 +248,8 @@ public class HorseColorCalculator
         if (horse.hasAllele(Gene.donkey_dark, 1)) {
             TextureLayer donkeyDark = new TextureLayer();
             donkeyDark.name = fixPath("donkey_dark");
-            donkeyDark.color = blackBodyColor(horse);
-            setGrayConcentration(horse, donkeyDark);
+            blackBodyColor(horse, donkeyDark.color);
+            setGrayConcentration(horse, donkeyDark, concentrationStage);
             if (!horse.isHomozygous(Gene.donkey_dark, 1)) {
                 donkeyDark.color.a = 0.5f;
             }
@@ -249,7 +268,7 @@ public class HorseColorCalculator
             layer.name = fixPath("brown");
         }
         else {
-            layers.add(getSooty(horse));
+            layers.add(getSooty(horse, concentrationStage));
             if (horse.species == Species.DONKEY) {
                 layer.name = fixPath("donkey_bay");
             }
@@ -257,8 +276,8 @@ public class HorseColorCalculator
                 return;
             }
         }
-        layer.color = blackBodyColor(horse);
-        setGrayConcentration(horse, layer);
+        blackBodyColor(horse, layer.color);
+        setGrayConcentration(horse, layer, concentrationStage);
         layers.add(layer);
     }
 
@@ -269,7 +288,7 @@ public class HorseColorCalculator
         return 1f + x / 100f;
     }
 
-    private static Pigment redManePigment(EquineGenome horse) {
+    private static Pigment redManePigment(EquineGenome horse, Pigment out) {
         float power = 1f;
         float white = 0f;
 
@@ -283,10 +302,13 @@ public class HorseColorCalculator
             power *= 0.5f;
             white += 0.02f;
         }
-        return new Pigment(redBodyColor(horse), power, white);
+        out.concentration = power;
+        out.white = white;
+        redBodyColor(horse, out.color);
+        return out;
     }
 
-    private static Pigment getFlaxenPower(EquineGenome horse) {
+    private static Pigment getFlaxenPower(EquineGenome horse, Pigment out) {
         float power = 1f;
         float white = 0f;
         if (horse.isHomozygous(Gene.flaxen1, HorseAlleles.FLAXEN)) {
@@ -305,10 +327,10 @@ public class HorseColorCalculator
             power *= 0.4f;
             white += 0.25f;
         }
-        return new Pigment(PHEOMELANIN, power, white);
+        return out.set(PHEOMELANIN, power, white);
     }
 
-    private static void addLightManeTail(EquineGenome horse, List<TextureLayer> layers) {
+    private static void addLightManeTail(EquineGenome horse, List<TextureLayer> layers, int concentrationStage) {
         if (!horse.isChestnut() && !horse.isFrostedDun()) {
             return;
         }
@@ -327,18 +349,20 @@ public class HorseColorCalculator
         TextureLayer flaxen = new TextureLayer();
         flaxen.name = fixPath("manetail");
 
-        Pigment flaxenPower = getFlaxenPower(horse);
+        Scratch scratch = SCRATCH.get();
+        Pigment flaxenPower = getFlaxenPower(horse, scratch.pigment2);
         if (horse.isFrostedDun()) {
             flaxenPower.white = Math.max(flaxenPower.white, 0.6f);
             flaxenPower.concentration = Math.min(flaxenPower.concentration, 0.5f);
         }
-        Pigment maneColor = horse.isChestnut()? redManePigment(horse) : blackManePigment(horse);
+        Pigment maneColor = horse.isChestnut()? redManePigment(horse, scratch.pigment)
+            : blackManePigment(horse, scratch.pigment);
         maneColor.concentration *= flaxenPower.concentration;
         maneColor.white += flaxenPower.white;
 
 
-        flaxen.color = maneColor.toColor();
-        setGrayConcentration(horse, flaxen);
+        maneColor.toColor(flaxen.color);
+        setGrayConcentration(horse, flaxen, concentrationStage);
         layers.add(flaxen);
 
     }
@@ -346,9 +370,10 @@ public class HorseColorCalculator
     // Used for hoof and nose color of most horses. Champagne horses use 
     // blackBasePigment directly
     private static void colorSkin(EquineGenome horse, TextureLayer layer) {
-        Pigment pigment = blackBasePigment(horse);
+        Scratch scratch = SCRATCH.get();
+        Pigment pigment = blackBasePigment(horse, scratch.pigment);
         pigment.concentration *= 1.2f;
-        layer.color = pigment.toColor();
+        pigment.toColor(layer.color);
         // Multiply by pink
         layer.color.multiply(PINK_SKIN);
     }
@@ -368,23 +393,24 @@ public class HorseColorCalculator
     }
 
     private static void addNose(EquineGenome horse, TextureLayerGroup layerGroup) {
+        Scratch scratch = SCRATCH.get();
         TextureLayer noseBase = new TextureLayer();
         noseBase.name = fixPath("nose");
         // For champagne horses, make the main nose texture pink and add darker
         // freckles
         if (horse.hasAllele(Gene.champagne, HorseAlleles.CHAMPAGNE)) {
-            Pigment frecklePigment = blackBasePigment(horse);
+            Pigment frecklePigment = blackBasePigment(horse, scratch.pigment);
             TextureLayer freckles = new TextureLayer();
             freckles.name = fixPath("freckles");
             freckles.type = TextureLayer.Type.NO_ALPHA;
             frecklePigment.concentration *= 3f;
-            freckles.color = frecklePigment.toColor();
+            frecklePigment.toColor(freckles.color);
             freckles.color.multiply(PINK_SKIN);
 
-            Pigment black = blackBasePigment(horse);
+            Pigment black = blackBasePigment(horse, scratch.pigment);
             black.concentration *= 0.2f;
             black.white *= 0.1f;
-            noseBase.color = black.toColor();
+            black.toColor(noseBase.color);
             noseBase.color.multiply(PINK_SKIN);
 
             TextureLayerGroup group = new TextureLayerGroup();
@@ -412,19 +438,20 @@ public class HorseColorCalculator
         TextureLayer layer = new TextureLayer();
         layer.name = fixPath("iris");
         // Blue background color
-        Pigment blue = new Pigment(BLUE_EYES, blueEyeShade(horse), 0f);
+        Scratch scratch = SCRATCH.get();
+        Pigment blue = scratch.pigment2.set(BLUE_EYES, blueEyeShade(horse), 0f);
         if (horse.isAlbino()) {
             blue.white = 0.2f;
-            layer.color = blue.toColor();
+            blue.toColor(layer.color);
             layer.color.multiply(PINK_EYE);
         }
         else if (horse.isHomozygous(Gene.MITF, HorseAlleles.MITF_SW1)) {
             // Unpigmented blue eyes
-            layer.color = blue.toColor();
+            blue.toColor(layer.color);
         }
         else {
             // Pigmented eyes
-            Pigment pigment = blackBasePigment(horse);
+            Pigment pigment = blackBasePigment(horse, scratch.pigment);
             // Champagne lightens the fur more than the eyes
             if (horse.hasAllele(Gene.champagne, HorseAlleles.CHAMPAGNE)) {
                 pigment.concentration *= 1.5f;
@@ -461,8 +488,8 @@ public class HorseColorCalculator
             pigment.white *= 0.2f;
             // Adjust so pigmented eyes have less blue to them
             blue.concentration = Math.max(0f, blue.concentration - 0.5f * pigment.concentration);
-            layer.color = pigment.toColor();
-            layer.color.multiply(blue.toColor());
+            pigment.toColor(layer.color);
+            layer.color.multiply(blue.toColor(scratch.color));
         }
         return layer;
     }
@@ -489,17 +516,17 @@ public class HorseColorCalculator
         TextureLayer layer = new TextureLayer();
         layer.name = fixPath("dun/dun_dilute");
         layer.type = TextureLayer.Type.ROOT;
-        layer.color = new Color(dunRoot, dunRoot, dunRoot);
+        layer.color.set(dunRoot, dunRoot, dunRoot);
         layers.add(layer);
     }
 
-    private static TextureLayer getSooty(EquineGenome horse)
+    private static TextureLayer getSooty(EquineGenome horse, int concentrationStage)
     {
         TextureLayer layer = new TextureLayer();
 
         // Set the color before changing its alpha
-        layer.color = blackBodyColor(horse);
-        setGrayConcentration(horse, layer);
+        blackBodyColor(horse, layer.color);
+        setGrayConcentration(horse, layer, concentrationStage);
 
         int sooty_level = horse.getSootyLevel();
         switch (sooty_level) {
@@ -554,7 +581,7 @@ public class HorseColorCalculator
         }
 
         light_belly.name = fixPath("mealy/mealy" + spread);
-        light_belly.color = redBodyColor(horse);
+        redBodyColor(horse, light_belly.color);
         light_belly.color.power(0.04f * (2 - color));
 
         // Donkeys ignore all of the above
@@ -565,15 +592,15 @@ public class HorseColorCalculator
             else {
                 light_belly.name = fixPath("mealy/donkey_mealy_darkleg");
             }
-            light_belly.color = redBodyColor(horse);
+            redBodyColor(horse, light_belly.color);
             light_belly.color.power(0.04f);
         }
 
         textureLayers.add(light_belly);
     }
 
-    private static Pigment blackManePigment(EquineGenome horse) {
-        Pigment pigment = blackFurPigment(horse);
+    private static Pigment blackManePigment(EquineGenome horse, Pigment pigment) {
+        blackFurPigment(horse, pigment);
 
         if (horse.hasAllele(Gene.silver, HorseAlleles.SILVER)) {
             pigment.concentration *= 0.02f;
@@ -581,7 +608,8 @@ public class HorseColorCalculator
         return pigment;
     }
 
-    private static void addPoints(EquineGenome horse, List<TextureLayer> layers) {
+    private static void addPoints(EquineGenome horse, List<TextureLayer> layers, int concentrationStage) {
+        Scratch scratch = SCRATCH.get();
         TextureLayerGroup points = new TextureLayerGroup();
         // Add dorsal stripe for dun primitive markings
         if (horse.hasStripe()) {
@@ -617,8 +645,8 @@ public class HorseColorCalculator
                 if (!horse.isChestnut() && !horse.isDun()) {
                     TextureLayer layer = new TextureLayer();
                     layer.name = fixPath("manetail");
-                    layer.color = blackManePigment(horse).toColor();
-                    setGrayConcentration(horse, layer);
+                    blackManePigment(horse, scratch.pigment).toColor(layer.color);
+                    setGrayConcentration(horse, layer, concentrationStage);
                     layers.add(layer);
                 }
             }
@@ -627,36 +655,36 @@ public class HorseColorCalculator
             }
 
             if (horse.isChestnut()) {
-                mane.color = redManePigment(horse).toColor();
+                redManePigment(horse, scratch.pigment).toColor(mane.color);
             }
             else {
-                mane.color = blackManePigment(horse).toColor();
+                blackManePigment(horse, scratch.pigment).toColor(mane.color);
             }
             mane.color.power(1.1f);
-            setGrayConcentration(horse, mane);
+            setGrayConcentration(horse, mane, concentrationStage);
             layers.add(mane);
         }
         // Set the points to be the right color depending on whether the horse
         // is a red dun or bay/black based
         if (horse.isChestnut()) {
-            points.color = redBodyColor(horse);
+            redBodyColor(horse, points.color);
             points.color.power(1.1f);
         }
         else {
-            Pigment pigment = blackFurPigment(horse);
+            Pigment pigment = blackFurPigment(horse, scratch.pigment);
             // Adjust champagnes to have darker points
             if (horse.hasAllele(Gene.champagne, HorseAlleles.CHAMPAGNE)) {
                 pigment.concentration *= 1.2f;
                 pigment.white *= 0.5;
             }
-            points.color = pigment.toColor();
+            pigment.toColor(points.color);
             points.color.power(1.2f);
         }
         // Ignore this for horses that don't need it
         if (points.layers.size() > 0) {
             layers.add(points);
         }
-        setGrayConcentration(horse, points);
+        setGrayConcentration(horse, points, concentrationStage);
     }
 
     private static void addGray(EquineGenome horse, List<TextureLayer> layers) {
@@ -694,6 +722,18 @@ public class HorseColorCalculator
         }
     }
 
+    // Everything about graying that affects the texture, packed into one
+    // number. As long as this stays the same, so does the texture.
+    public static int getGrayStages(EquineGenome horse) {
+        if (!horse.isGray()) {
+            return 0;
+        }
+        int body_stage = grayStage(horse, horse.getGrayRate(), GRAY_BODY_STAGES, 0.25f);
+        int mane_stage = grayStage(horse, horse.getGrayManeRate(), GRAY_MANE_STAGES, 0.3f);
+        int concentration_stage = grayStage(horse, horse.getGrayRate(), GRAY_CONCENTRATION_STAGES, 0f);
+        return 1 << 24 | body_stage << 16 | mane_stage << 8 | concentration_stage;
+    }
+
     // num_stages does not count the starting and ending stages
     private static int grayStage(EquineGenome horse, float rate, int num_stages, float delay) {
         final int YEAR_TICKS = (int)(HorseConfig.GROWTH.yearLength.get() * 24000);
@@ -715,37 +755,60 @@ public class HorseColorCalculator
         return (int)(gray_age * num_stages);
     }
 
-    private static float grayConcentration(EquineGenome horse, float rate) {
-        int stage = grayStage(horse, rate, 50, 0f);
+    private static float grayConcentration(int stage) {
         double val = 1.1 + Math.pow(1.06, stage) * stage / 50. * stage / 50.;
         return (float)val;
     }
 
-    private static void setGrayConcentration(EquineGenome horse, TextureLayer layer) {
+    // Darken for a gray horse at the given concentration stage, which is
+    // passed in so keyframes can be built for stages other than the horse's own
+    private static void setGrayConcentration(EquineGenome horse, TextureLayer layer, int concentrationStage) {
         if (horse.isGray()) {
             // Darken by increasing concentration
-            float concentration = grayConcentration(horse, horse.getGrayRate());
-            Color dark = new Color(layer.color);
-            dark.power(concentration);
+            float concentration = grayConcentration(concentrationStage);
+            float darkR = Color.clamp((float)Math.pow(layer.color.r, concentration));
+            float darkG = Color.clamp((float)Math.pow(layer.color.g, concentration));
+            float darkB = Color.clamp((float)Math.pow(layer.color.b, concentration));
             // Darken by averaging with black
-            float lightnessDiff = (float)(dark.r + dark.g + dark.b) / (layer.color.r + layer.color.g + layer.color.b);
+            float lightnessDiff = (float)(darkR + darkG + darkB) / (layer.color.r + layer.color.g + layer.color.b);
             layer.color.average(Color.BLACK, 1f - lightnessDiff);
             // Average the two darkened versions
-            layer.color.average(dark, 0.5f);
+            layer.color.average(darkR, darkG, darkB, 1f, 0.5f);
         }
     }
 
     @OnlyIn(Dist.CLIENT)
     public static TextureLayerGroup getTexturePaths(EquineGenome horse) {
+        // Gray horses darken a little at a time, so instead of building
+        // every stage, build keyframes every few stages and blend between.
+        // Fully gray is a keyframe too, since that's where most gray horses
+        // end up.
+        int stage = horse.isGray() ? grayStage(horse, horse.getGrayRate(), GRAY_CONCENTRATION_STAGES, 0f) : 0;
+        final int lastStage = GRAY_CONCENTRATION_STAGES + 1;
+        if (horse.isGray() && stage != lastStage) {
+            int from = stage / GRAY_KEYFRAME_SPACING * GRAY_KEYFRAME_SPACING;
+            if (from != stage) {
+                int to = Math.min(from + GRAY_KEYFRAME_SPACING, lastStage);
+                return new InterpolatedTextureLayerGroup(getTexturePaths(horse, from),
+                    getTexturePaths(horse, to), (stage - from) / (float)(to - from));
+            }
+        }
+        return getTexturePaths(horse, stage);
+    }
+
+    // Builds the layers as if the horse were at the given gray concentration
+    // stage
+    @OnlyIn(Dist.CLIENT)
+    private static TextureLayerGroup getTexturePaths(EquineGenome horse, int concentrationStage) {
         List<TextureLayer> textureLayers = new ArrayList<TextureLayer>();
         TextureLayerGroup layerGroup = new TextureLayerGroup(textureLayers);
-        TextureLayer red = getRedBody(horse);
+        TextureLayer red = getRedBody(horse, concentrationStage);
         textureLayers.add(red);
-        addBlackBody(horse, layerGroup);
+        addBlackBody(horse, layerGroup, concentrationStage);
         addMealy(horse, textureLayers);
-        addLightManeTail(horse, textureLayers);
+        addLightManeTail(horse, textureLayers, concentrationStage);
         addDun(horse, textureLayers);
-        addPoints(horse, textureLayers);
+        addPoints(horse, textureLayers, concentrationStage);
         addGray(horse, textureLayers);
         addNose(horse, layerGroup);
         textureLayers.add(getHooves(horse));
@@ -0,0 +1,61 @@
+package sekelsta.horse_colors.util;
+
+// Finds the best of a series of candidates in a single pass, instead of
+// sorting them all to take the first. Each candidate is offered along with
+// its keys, so they are only worked out once per candidate rather than once
+// per comparison. A higher rank always wins, and among candidates of the
+// same rank the lowest score wins. Ties keep whichever was offered first.
+//
+// Meant to be kept and reused, so that finding the best doesn't allocate.
+public class BestOf<T> {
+    private T best;
+    private int bestRank;
+    private double bestScore;
+
+    public BestOf() {
+        reset();
+    }
+
+    public BestOf<T> reset() {
+        best = null;
+        bestRank = Integer.MIN_VALUE;
+        bestScore = Double.POSITIVE_INFINITY;
+        return this;
+    }
+
+    // Returns true if this candidate is the best so far
+    public boolean offer(T candidate, int rank, double score) {
+        if (best == null || rank > bestRank || (rank == bestRank && score < bestScore)) {
+            best = candidate;
+            bestRank = rank;
+            bestScore = score;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean offer(T candidate, double score) {
+        return offer(candidate, 0, score);
+    }
+
+    // The best candidate offered since the last reset, or null if none were
+    public T get() {
+        return best;
+    }
+
+    // Same as get(), but clears the reference so the candidate isn't kept
+    // alive by a reused selector
+    public T take() {
+        T result = best;
+        reset();
+        return result;
+    }
+
+    public int getRank() {
+        return bestRank;
+    }
+
+    public double getScore() {
+        return bestScore;
+    }
+}
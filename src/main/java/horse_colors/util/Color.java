@@ -32,6 +32,21 @@ public class Color {
         this(copy.r, copy.g, copy.b);
     }
 
+    // Change this color in place, rather than making a new one. Like the
+    // constructors, this sets alpha to 1.
+    public Color set(float r, float g, float b) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
+        this.a = 1f;
+        return this;
+    }
+
+    // Same as the copy constructor, but without allocating
+    public Color set(Color copy) {
+        return set(copy.r, copy.g, copy.b);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == this) {
@@ -96,10 +111,23 @@ public class Color {
         clamp();
     }
 
+    // Same as average(Color, float), but with the other color given as
+    // separate values so it needn't be held in a Color
+    public void average(float r, float g, float b, float a, float weight) {
+        this.r = this.r * (1 - weight) + r * weight;
+        this.g = this.g * (1 - weight) + g * weight;
+        this.b = this.b * (1 - weight) + b * weight;
+        this.a = this.a * (1 - weight) + a * weight;
+        clamp();
+    }
+
     // Average with white
     public void addWhite(float w) {
-        Color white = new Color();
-        this.average(white, w);
+        r = r * (1 - w) + w;
+        g = g * (1 - w) + w;
+        b = b * (1 - w) + w;
+        a = a * (1 - w) + w;
+        clamp();
     }
 
     // Multiply each RGBA value with the given color
@@ -111,6 +139,11 @@ public class Color {
         clamp();
     }
 
+    // Restrict a single value to between 0 and 1
+    public static float clamp(float x) {
+        return Math.max(0f, Math.min(x, 1f));
+    }
+
     // Clamp values to be between 0 and 1
     private void clamp() {
         r = Math.max(0f, Math.min(r, 1f));
@@ -2,8 +2,9 @@ package sekelsta.horse_colors.util;
 
 // For adjusting the density of pigment of the given color
 public class Pigment {
-    // The pigment color at a fixed and relatively low density
-    public Color color;
+    // The pigment color at a fixed and relatively low density. Each pigment
+    // has its own, so it can be changed without affecting any other.
+    public final Color color = new Color();
     // The density of pigment
     public float concentration;
     // For decreasing saturation by averaging the color with white
@@ -12,16 +13,27 @@ public class Pigment {
     public Pigment() {}
 
     public Pigment(Color color, float concentration, float white) {
-        this.color = color;
+        set(color, concentration, white);
+    }
+
+    // Reuse this pigment instead of making a new one
+    public Pigment set(Color color, float concentration, float white) {
+        this.color.set(color);
         this.concentration = concentration;
         this.white = white;
+        return this;
     }
 
     // Use the pigment color and density to get the final color
     public Color toColor() {
-        Color c = new Color(color);
-        c.power(concentration);
-        c.addWhite(white);
-        return c;
+        return toColor(new Color());
+    }
+
+    // Same as toColor(), but writes the result into the given color
+    public Color toColor(Color out) {
+        out.set(color);
+        out.power(concentration);
+        out.addWhite(white);
+        return out;
     }
 }
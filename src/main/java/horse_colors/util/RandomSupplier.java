@@ -2,23 +2,83 @@ package sekelsta.horse_colors.util;
 
 import java.util.*;
 
+// Supplies a stable pseudorandom value for each of a fixed list of keys,
+// given a seed. Lookups take constant time regardless of the key's position.
 public class RandomSupplier {
-    List<String> keys = new ArrayList<>();
+    public enum Mode {
+        // The same values as drawing from java.util.Random(seed) in key
+        // order, with the seed itself used for the first key. Existing
+        // horses depend on these values to keep their looks.
+        LEGACY,
+        // Each value is an independent SplitMix64 hash of the seed and the
+        // key's index
+        SPLITMIX
+    }
+
+    // Constants used by java.util.Random
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private final Mode mode;
+    private final Map<String, Integer> indices = new HashMap<>();
+    // For legacy mode, the state of java.util.Random after i calls to
+    // nextInt() is multipliers[i] * initialState + addends[i]
+    private final long[] multipliers;
+    private final long[] addends;
 
     public RandomSupplier(List keys) {
-        this.keys = keys;
+        this(keys, Mode.LEGACY);
+    }
+
+    public RandomSupplier(List<String> keys, Mode mode) {
+        this.mode = mode;
+        for (int i = 0; i < keys.size(); ++i) {
+            // Keep the first index if a key is listed twice
+            indices.putIfAbsent(keys.get(i), i);
+        }
+        multipliers = new long[keys.size()];
+        addends = new long[keys.size()];
+        long m = 1;
+        long a = 0;
+        for (int i = 0; i < keys.size(); ++i) {
+            multipliers[i] = m;
+            addends[i] = a;
+            m = (m * MULTIPLIER) & MASK;
+            a = (a * MULTIPLIER + ADDEND) & MASK;
+        }
     }
 
     public int getVal(String keyRequested, int seed) {
-        Random rand = new Random(seed);
-        int current = seed;
-        for (String key : keys) {
-            if (key.equals(keyRequested)) {
-                return current;
-            }
-            current = rand.nextInt();
-        }  
-        System.err.println("Key not found in RandomSupplier: " + keyRequested);
-        return 0; 
+        Integer index = indices.get(keyRequested);
+        if (index == null) {
+            System.err.println("Key not found in RandomSupplier: " + keyRequested);
+            return 0;
+        }
+        return getVal(index, seed);
+    }
+
+    public int getVal(int index, int seed) {
+        switch (mode) {
+            case SPLITMIX:
+                return (int)(splitMix64(((long)seed << 32) ^ index) >>> 32);
+            case LEGACY:
+            default:
+                if (index == 0) {
+                    return seed;
+                }
+                // Jump straight to the state java.util.Random(seed) would
+                // have after index calls to nextInt()
+                long initial = ((long)seed ^ MULTIPLIER) & MASK;
+                long state = (multipliers[index] * initial + addends[index]) & MASK;
+                return (int)(state >>> 16);
+        }
+    }
+
+    private static long splitMix64(long x) {
+        long z = x + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
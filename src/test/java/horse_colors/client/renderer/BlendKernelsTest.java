@@ -0,0 +1,99 @@
+package sekelsta.horse_colors.client.renderer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import sekelsta.horse_colors.util.Color;
+
+// Checks the exponent lookup tables in BlendKernels against calling
+// Math.pow directly, for every pair of base and image bytes.
+public class BlendKernelsTest {
+    private static final float[] TINTS = {0f, 0.001f, 0.002f, 0.05f, 0.1f, 0.25f, 1f / 3f, 0.5f, 0.75f, 0.9f, 0.999f, 1f};
+
+    // Each column holds one base byte and each row one image byte, in every
+    // color channel, so one kernel call covers all 256 * 256 pairs
+    private static PixelBuffer bases() {
+        PixelBuffer image = new PixelBuffer(256, 256);
+        for (int y = 0; y < 256; ++y) {
+            for (int x = 0; x < 256; ++x) {
+                image.pixels[y * 256 + x] = 0xff000000 | x << 16 | x << 8 | x;
+            }
+        }
+        return image;
+    }
+
+    private static PixelBuffer exponents() {
+        PixelBuffer image = new PixelBuffer(256, 256);
+        for (int y = 0; y < 256; ++y) {
+            for (int x = 0; x < 256; ++x) {
+                image.pixels[y * 256 + x] = 0xff000000 | y << 16 | y << 8 | y;
+            }
+        }
+        return image;
+    }
+
+    // What the kernel would give if it called Math.pow for every pixel
+    private static int expected(int baseByte, int imageByte, float tint, boolean root) {
+        float baseV = baseByte / 255f;
+        float imgV = imageByte / 255f * tint;
+        float value = root ? (float)Math.pow(baseV, imgV)
+            : (float)Math.pow(baseV, 1 / Math.max(0.002f, imgV));
+        return Math.max(0, Math.min((int)(value * 255), 255));
+    }
+
+    private static void check(float tint, boolean root) {
+        PixelBuffer base = bases();
+        BlendKernels.exponent(base, exponents(), new Color(tint, tint, tint), root);
+        for (int y = 0; y < 256; ++y) {
+            for (int x = 0; x < 256; ++x) {
+                int pixel = base.pixels[y * 256 + x];
+                int expected = expected(x, y, tint, root);
+                String where = (root ? "root" : "power") + " tint " + tint + " base " + x + " image " + y;
+                assertEquals(expected, pixel & 255, "red, " + where);
+                assertEquals(expected, pixel >>> 8 & 255, "green, " + where);
+                assertEquals(expected, pixel >>> 16 & 255, "blue, " + where);
+                assertEquals(255, pixel >>> 24, "alpha, " + where);
+            }
+        }
+    }
+
+    @Test
+    public void powerMatchesMathPow() {
+        for (float tint : TINTS) {
+            check(tint, false);
+        }
+    }
+
+    @Test
+    public void rootMatchesMathPow() {
+        for (float tint : TINTS) {
+            check(tint, true);
+        }
+    }
+
+    // The first pass fills in entries still marked NaN, and the second
+    // reads them back from the table
+    @Test
+    public void filledTablesGiveTheSameResults() {
+        for (float tint : TINTS) {
+            check(tint, false);
+            check(tint, false);
+            check(tint, true);
+            check(tint, true);
+        }
+    }
+
+    // More tints than there are tables for, so earlier tints are dropped
+    // and have to be worked out again
+    @Test
+    public void tintsStillMatchAfterTablesAreCleared() {
+        for (int i = 0; i < 80; ++i) {
+            check(i / 79f, i % 2 == 0);
+        }
+        for (float tint : TINTS) {
+            check(tint, false);
+            check(tint, true);
+        }
+    }
+}